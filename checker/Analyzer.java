@@ -0,0 +1,275 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Searches every position of a file, one Position per line, and writes a JSON line per position
+ * with its best turn, score, principal variation and counters, in the order of the file. The
+ * positions are searched on a work-stealing pool, each worker thread with its own pair of
+ * players and transposition tables, so a quick position never waits behind a slow one and every
+ * core stays busy to the end. Only a window of positions is in flight at a time, so a file of
+ * any length is streamed through in constant memory.
+ */
+public class Analyzer{
+    public static int DEFAULT_DEPTH = 8;
+    public static int DEFAULT_TABLE_SIZE_MB = 16;
+    // Positions in flight per thread, enough to keep the workers busy while the writer waits
+    // for the oldest one.
+    private static final int WINDOW_PER_THREAD = 64;
+
+    private int depth, tableSizeMB = DEFAULT_TABLE_SIZE_MB;
+    private long timeLimitMillis, nodeLimit;
+    private Evaluator evaluator = Evaluator.MATERIAL;
+    private Tablebase tablebase;
+    private ThreadLocal<Player[]> players = ThreadLocal.withInitial(() -> new Player[]{
+        createPlayer(Piece.BLACK), createPlayer(Piece.WHITE)});
+
+    /**
+     * Searches each position to the given depth and, if timeLimitMillis or nodeLimit is set,
+     * within that budget; a depth of 0 with a budget deepens until the budget runs out.
+     */
+    public Analyzer(int depth, long timeLimitMillis, long nodeLimit, int tableSizeMB) {
+        this.depth = depth;
+        this.timeLimitMillis = timeLimitMillis;
+        this.nodeLimit = nodeLimit;
+        this.tableSizeMB = tableSizeMB;
+    }
+
+    public void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    private Player createPlayer(String color) {
+        Player player = new Player(color);
+        player.setTableSize(tableSizeMB);
+        player.setEvaluator(evaluator);
+        player.setTablebase(tablebase);
+        if (depth > 0) {
+            player.setMaxDepth(depth);
+        }
+        player.setTimeLimit(timeLimitMillis);
+        player.setNodeLimit(nodeLimit);
+        return player;
+    }
+
+    /**
+     * Searches one line of the input and returns its JSON line. The transposition table is
+     * cleared first, so the result does not depend on which positions the thread searched before.
+     * A line that is not a position, or a position the search fails on, gets a line with the
+     * error instead, so one bad position does not stop the rest of the file.
+     */
+    public String analyze(int lineNumber, String line) {
+        StringBuilder json = new StringBuilder(256).append("{\"line\":").append(lineNumber);
+        Position position;
+        try {
+            position = Position.parse(line);
+        } catch (IllegalArgumentException e) {
+            json.append(",\"input\":");
+            appendString(json, line.trim());
+            json.append(",\"error\":");
+            appendString(json, e.getMessage());
+            return json.append('}').toString();
+        }
+        json.append(",\"position\":");
+        appendString(json, position.toString());
+        int length = json.length();
+        try {
+            appendAnalysis(json, position);
+        } catch (RuntimeException e) {
+            json.setLength(length);
+            json.append(",\"error\":");
+            appendString(json, e.toString());
+        }
+        return json.append('}').toString();
+    }
+
+    private void appendAnalysis(StringBuilder json, Position position) {
+
+        Player[] sides = players.get();
+        Player player = sides[position.isBlackToMove() ? 0 : 1];
+        player.clearTable();
+        long start = System.nanoTime();
+        SearchResult result = player.search(position.getBoard());
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        json.append(",\"move\":");
+        if (result.getMove() == null) {
+            json.append("null");
+        } else {
+            appendString(json, formatHops(result.getMove(), 0, result.getMove().size()));
+        }
+        json.append(",\"score\":").append(result.getScore());
+        json.append(",\"decisive\":").append(result.isDecisive());
+        json.append(",\"depth\":").append(result.getDepth());
+        json.append(",\"pv\":[");
+        // The variation lists the hops of its turns one after another, without the jumps a chain
+        // makes on its own, so the turns are told apart by replaying the hops with Board.move.
+        List<int[]> variation = result.getPrincipalVariation();
+        Board replay = position.getBoard().cloneBoard();
+        boolean black = position.isBlackToMove();
+        for (int from = 0, to = 0; to < variation.size(); ) {
+            int[] hop = variation.get(to++);
+            int played = replay.move(hop[0], hop[1], hop[2], hop[3], sides[black ? 0 : 1]);
+            if (played == Board.MOVE_CHAIN_JUMP && to < variation.size()) {
+                continue;
+            }
+            if (from > 0) {
+                json.append(',');
+            }
+            appendString(json, formatHops(variation, from, to));
+            if (played != Board.MOVE_COMPLETED) {
+                break;
+            }
+            black = !black;
+            from = to;
+        }
+        SearchStats stats = result.getStats();
+        json.append("],\"nodes\":").append(stats.get(SearchStats.NODES));
+        json.append(",\"qnodes\":").append(stats.get(SearchStats.QUIESCENCE_NODES));
+        json.append(",\"tbhits\":").append(stats.get(SearchStats.TABLEBASE_HITS));
+        json.append(",\"ms\":").append(String.format(Locale.ROOT, "%.1f", millis));
+    }
+
+    // The hops of a turn the way GameServer sends them: xyXY per hop, separated by spaces.
+    private static String formatHops(List<int[]> hops, int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            int[] hop = hops.get(i);
+            text.append(i > from ? " " : "").append(hop[0]).append(hop[1]).append(hop[2]).append(hop[3]);
+        }
+        return text.toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Analyzes every position the reader gives, skipping blank lines and lines starting with
+     * #, on a work-stealing pool of the given number of threads, and writes the JSON lines in
+     * input order. Returns the number of positions written.
+     */
+    public long run(BufferedReader in, Writer out, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        long written = 0;
+        try {
+            int lineNumber = 0;
+            for (String line; (line = in.readLine()) != null; ) {
+                int number = ++lineNumber;
+                String text = line.trim();
+                if (text.isEmpty() || text.startsWith("#")) {
+                    continue;
+                }
+                window.add(pool.submit(() -> analyze(number, text)));
+                if (window.size() >= threads * WINDOW_PER_THREAD) {
+                    write(window.poll(), out);
+                    written++;
+                }
+            }
+            while (!window.isEmpty()) {
+                write(window.poll(), out);
+                written++;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+        return written;
+    }
+
+    private static void write(Future<String> result, Writer out) throws IOException {
+        try {
+            out.write(result.get());
+            out.write('\n');
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Usage: java Analyzer [-depth n] [-time ms] [-nodes n] [-threads n] [-hash mb] [-eval file]
+     * [-tablebase file] [-out file] positions, where positions is a file of Position lines, or -
+     * for standard input; the JSON lines go to the out file or standard output.
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = 0, threads = Runtime.getRuntime().availableProcessors(), tableSizeMB = DEFAULT_TABLE_SIZE_MB;
+        long timeLimitMillis = 0, nodeLimit = 0;
+        String input = "-", output = null, evaluator = null, tablebase = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "-time":
+                    timeLimitMillis = Long.parseLong(args[++i]);
+                    break;
+                case "-nodes":
+                    nodeLimit = Long.parseLong(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-hash":
+                    tableSizeMB = Integer.parseInt(args[++i]);
+                    break;
+                case "-eval":
+                    evaluator = args[++i];
+                    break;
+                case "-tablebase":
+                    tablebase = args[++i];
+                    break;
+                case "-out":
+                    output = args[++i];
+                    break;
+                default:
+                    input = args[i];
+                    break;
+            }
+        }
+        if (depth == 0 && timeLimitMillis == 0 && nodeLimit == 0) {
+            depth = DEFAULT_DEPTH;
+        }
+
+        Analyzer analyzer = new Analyzer(depth, timeLimitMillis, nodeLimit, tableSizeMB);
+        if (evaluator != null) {
+            analyzer.setEvaluator(Evaluator.load(evaluator));
+        }
+        if (tablebase != null) {
+            analyzer.setTablebase(Tablebase.load(tablebase));
+        }
+        long start = System.nanoTime();
+        long positions;
+        try (BufferedReader in = input.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+             Writer out = new BufferedWriter(output == null
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8), 1 << 16)) {
+            positions = analyzer.run(in, out, Math.max(1, threads));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d positions in %.1f s, %.1f positions/s on %d threads%n", positions, seconds,
+            positions / seconds, threads);
+    }
+}
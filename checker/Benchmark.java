@@ -0,0 +1,152 @@
+import java.lang.management.*;
+import java.util.*;
+
+public class Benchmark{
+    private static int WARMUP_ITERATIONS = 3;
+    private static int MEASURE_ITERATIONS = 5;
+    private static long ITERATION_MILLIS = 1000;
+    private static int SEARCH_DEPTH = 6;
+
+    // Rows 0 to 7 as printed by Board.printBoard: b/w are men, B/W kings, anything else is empty.
+    private static final String[][] POSITIONS = {
+        {"start", "BLACK",
+            ".b.b.b.b", "b.b.b.b.", ".b.b.b.b", "........",
+            "........", "w.w.w.w.", ".w.w.w.w", "w.w.w.w."},
+        {"middlegame", "BLACK",
+            ".b.b...b", "b...b.b.", "...b.b..", "..b...w.",
+            ".w...w..", "w...w.w.", ".w.....w", "w.w.w..."},
+        {"endgame", "WHITE",
+            "........", "..b.....", ".....B..", "........",
+            "...W....", "w.......", ".....w..", "........"},
+    };
+
+    // Operations per timed batch; the boards a batch starts from are prepared before its timer
+    // starts.
+    private static int BATCH_SIZE = 256;
+
+    private static long sink;
+
+    private interface Operation {
+        long run(Board board, Player player);
+    }
+
+    // Makes the board one operation starts from, for operations that change it.
+    private interface Setup {
+        Board prepare(Board board);
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        Game game = new Game();
+        game.getBlackPlayer().setTableSize(1);
+        game.getWhitePlayer().setTableSize(1);
+
+        for (String[] position : POSITIONS) {
+            Board board = parseBoard(position);
+            Player player = position[1].equals("BLACK") ? game.getBlackPlayer() : game.getWhitePlayer();
+            List<int[]> moves = player.getAllmoves(board, player);
+            int[] firstMove = moves.get(0);
+            Piece firstPiece = board.getPiece(firstMove[0], firstMove[1]);
+            BoardState state = new BoardState(player, board, player);
+
+            run(filter, "Piece.getAvailableMovesAndJumps", position[0], board, player,
+                (b, p) -> firstPiece.getAvailableMovesAndJumps(b, p).size());
+            run(filter, "Player.getAllmoves", position[0], board, player,
+                (b, p) -> p.getAllmoves(b, p).size());
+            long[] turns = new long[Board.MAX_MOVES];
+            run(filter, "Board.generateTurns", position[0], board, player,
+                (b, p) -> b.generateTurns(p.isBlackPlayer(), turns));
+            run(filter, "Board.cloneBoard", position[0], board, player,
+                (b, p) -> b.cloneBoard().getHash());
+            run(filter, "Board.move", position[0], board, player, Board::cloneBoard,
+                (b, p) -> b.move(firstMove[0], firstMove[1], firstMove[2], firstMove[3], p));
+            run(filter, "Board.makeMove+unmakeMove", position[0], board, player, (b, p) -> {
+                b.makeMove(Board.encodeMove(b.square(firstMove[0], firstMove[1]),
+                                            b.square(firstMove[2], firstMove[3])));
+                return b.unmakeMove();
+            });
+            String text = Position.format(board, player.isBlackPlayer());
+            run(filter, "Position.parse", position[0], board, player,
+                (b, p) -> Position.parse(text).getBoard().getHash());
+            run(filter, "Position.format", position[0], board, player,
+                (b, p) -> Position.format(b, p.isBlackPlayer()).length());
+            run(filter, "BoardState.evaluate", position[0], board, player,
+                (b, p) -> state.evaluate());
+            run(filter, "Player.getBestMove(depth " + SEARCH_DEPTH + ")", position[0], board, player, (b, p) -> {
+                p.setMaxDepth(SEARCH_DEPTH);
+                p.clearTable();
+                return p.getBestMove(b).size();
+            });
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void run(String filter, String name, String positionName, Board board, Player player,
+                            Operation operation) {
+        run(filter, name, positionName, board, player, null, operation);
+    }
+
+    private static void run(String filter, String name, String positionName, Board board, Player player,
+                            Setup setup, Operation operation) {
+        if (!name.contains(filter) && !positionName.contains(filter)) {
+            return;
+        }
+
+        Board[] boards = new Board[BATCH_SIZE];
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            measure(board, player, setup, operation, boards);
+        }
+
+        double[] opsPerSecond = new double[MEASURE_ITERATIONS];
+        long totalOps = 0, totalNanos = 0, allocated = 0;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long[] result = measure(board, player, setup, operation, boards);
+            opsPerSecond[i] = result[0] * 1e9 / result[1];
+            totalOps += result[0];
+            totalNanos += result[1];
+            allocated += result[2];
+        }
+
+        double mean = 0, variance = 0;
+        for (double value : opsPerSecond) {
+            mean += value / MEASURE_ITERATIONS;
+        }
+        for (double value : opsPerSecond) {
+            variance += (value - mean) * (value - mean) / Math.max(1, MEASURE_ITERATIONS - 1);
+        }
+        System.out.println(String.format("%-40s %-12s %14.1f ops/s +- %5.1f%%  %10.1f B/op  %8.1f MB/s",
+            name, positionName, mean, 100 * Math.sqrt(variance) / mean,
+            (double) allocated / totalOps, allocated / (totalNanos / 1e9) / (1024 * 1024)));
+    }
+
+    /**
+     * Runs batches of the operation for about ITERATION_MILLIS of timed work and returns the
+     * operations, the nanoseconds and the bytes allocated inside the timed batches only; with a
+     * setup, each batch runs on boards prepared before its timer starts.
+     */
+    private static long[] measure(Board board, Player player, Setup setup, Operation operation, Board[] boards) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long ops = 0, nanos = 0, allocated = 0;
+        do {
+            for (int i = 0; i < boards.length; i++) {
+                boards[i] = setup != null ? setup.prepare(board) : board;
+            }
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (Board batchBoard : boards) {
+                sink += operation.run(batchBoard, player);
+            }
+            nanos += System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            ops += boards.length;
+        } while (nanos < ITERATION_MILLIS * 1000000);
+        return new long[]{ops, nanos, allocated};
+    }
+
+    private static Board parseBoard(String[] position) {
+        return Board.parse(String.join("", Arrays.copyOfRange(position, 2, position.length)));
+    }
+}
@@ -4,193 +4,853 @@ public class Board{
     public static int BOARD_ROWS = 8;
     public static int BOARD_COLUMNS = 8;
     public static int PIECE_ROWS = 3;
-    
+
+    // Upper bound on the moves and jumps of one side: 20 kings of a 10x10 board with 4 steps
+    // each, twice.
+    public static int MAX_MOVES = 192;
+
+    // A game is drawn after this many turns in a row, by both sides together, in which only
+    // kings moved and nothing was captured.
+    public static int NO_PROGRESS_TURNS = 50;
+
     public static int MOVE_CHAIN_JUMP = 2;
     public static int MOVE_COMPLETED = 1;
     public static int MOVE_ILLEGAL = 0;
-    
-    private Piece[][] board;
-   
+
+    // Squares are numbered by the Geometry, x * 8 + y on the standard board. Directions:
+    // 0 = (+1, +1), 1 = (+1, -1), 2 = (-1, +1), 3 = (-1, -1), so 3 - d is the opposite of d.
+    // Black men move along 0 and 1, white men along 2 and 3.
+
+    // Undo records: from (6 bits) | to (6) | capture flag | captured square (6) | captured type (2)
+    // | promotion flag | chain square before the move + 1 (7) | first-hop flag.
+    private static final long CAPTURE = 1L << 12;
+    private static final long PROMOTION = 1L << 21;
+    private static final long FIRST_HOP = 1L << 29;
+
+    // Turns, as the search plays them, in a long: from (6 bits) | hops (5) | direction of each
+    // hop (2 bits each, from bit 11). A plain move has 0 hops and the direction of its step; a
+    // capture lists every jump of its chain, so one turn is always one move of the search.
+    // Every hop captures a piece, so a chain has at most as many hops as the opponent has
+    // pieces; a side may have at most MAX_TURN_HOPS, which Geometry checks for the start
+    // position and fromMasks, parse and setPiece for the rest.
+    private static final int TURN_DIRECTIONS = 11;
+    static final int MAX_TURN_HOPS = 26;
+
+    // Material of each piece type, indexed like Zobrist piece types: men count 1 and kings 2,
+    // positive for black.
+    private static final int[] MATERIAL = {1, -1, 2, -2};
+
+    private Geometry geometry;
+    private long black, white, kings;
+    private long hash;
+    private int chainSquare = -1;
+    private int[] pieceCounts = new int[4];
+    private int material;
+    private long[] undoStack = new long[32];
+    private int undoSize;
+    // The hashes of the positions move went through since the last capture or man move, oldest
+    // first; the current position is not included. Only the turns played with move count.
+    private long[] positions = new long[16];
+    private int positionCount;
+
     public Board() {
-        board = new Piece[BOARD_ROWS][BOARD_COLUMNS];
-        for (int i = 0; i < PIECE_ROWS; i++) {
-            for (int j = 0; j < BOARD_COLUMNS; j++) {
-                if ((i + j) % 2 != 0) {
-                    board[i][j] = new Piece(i, j, Piece.BLACK);
-                }
-            }
-        }
-            
-        
-        for (int i = BOARD_ROWS - PIECE_ROWS; i < BOARD_ROWS; i++) {
-            for (int j = 0; j < BOARD_COLUMNS; j++) {
-                if ((i + j) % 2 != 0) {
-                    board[i][j] = new Piece(i, j, Piece.WHITE);
-                }
-            }
+        this(Geometry.STANDARD);
+    }
+
+    /**
+     * Sets up the start position of the given board size.
+     */
+    public Board(Geometry geometry) {
+        this.geometry = geometry;
+        black = geometry.getStartSquares(true);
+        white = geometry.getStartSquares(false);
+        hash = Zobrist.hash(black, white, kings);
+        countPieces();
+    }
+
+    private Board(Geometry geometry, long black, long white, long kings, long hash, int chainSquare) {
+        this.geometry = geometry;
+        this.black = black;
+        this.white = white;
+        this.kings = kings;
+        this.hash = hash;
+        this.chainSquare = chainSquare;
+        countPieces();
+    }
+
+    private void countPieces() {
+        pieceCounts[Zobrist.BLACK_MAN] = Long.bitCount(black & ~kings);
+        pieceCounts[Zobrist.WHITE_MAN] = Long.bitCount(white & ~kings);
+        pieceCounts[Zobrist.BLACK_KING] = Long.bitCount(black & kings);
+        pieceCounts[Zobrist.WHITE_KING] = Long.bitCount(white & kings);
+        material = 0;
+        for (int pieceType = 0; pieceType < 4; pieceType++) {
+            material += pieceCounts[pieceType] * MATERIAL[pieceType];
         }
     }
-    
+
+    /**
+     * Plays a move or jump for good. A jump continues on its own while the piece has exactly one
+     * jump left; with more than one, MOVE_CHAIN_JUMP is returned and the next call must pick one.
+     */
     public int move(int x, int y, int goalX, int goalY, Player currentPlayer) {
         if (isValidMove(x, y, goalX, goalY, currentPlayer)) {
-            setPiece(goalX, goalY, getPiece(x, y));
-            setPiece(x, y, null);
-            
-            if (isJump(x, y, goalX, goalY)) {
-                int midX = calcMidX(x, goalX), midY = calcMidY(y, goalY);
-                setPiece(midX, midY, null);
-                Piece piece = getPiece(goalX, goalY);
-                List<int[]> availableJumps = piece.getAvailableJumps(this, currentPlayer);
-                int availableJumpsCount = availableJumps.size();
-                if (availableJumpsCount > 1) {
-                    return MOVE_CHAIN_JUMP;
-                } else if (availableJumpsCount == 1) {
-                    int[] goal = availableJumps.get(0);
-                    move(goalX, goalY, goal[0], goal[1], currentPlayer);
-                }
+            int move = encodeMove(square(x, y), square(goalX, goalY));
+            boolean reversible = (kings & bit(move & 63)) != 0 && !isJumpMove(move);
+            long before = hash;
+            makeMove(move);
+            undoSize = 0;
+            if (chainSquare >= 0) {
+                return MOVE_CHAIN_JUMP;
             }
+            recordPosition(before, reversible);
             return MOVE_COMPLETED;
         } else {
             return MOVE_ILLEGAL;
         }
     }
-    
+
+    private void recordPosition(long before, boolean reversible) {
+        if (!reversible) {
+            positionCount = 0;
+            return;
+        }
+        if (positionCount == positions.length) {
+            positions = Arrays.copyOf(positions, positionCount * 2);
+        }
+        positions[positionCount++] = before;
+    }
+
+    /**
+     * Returns how many turns in a row have been played with move since the last capture or man
+     * move; from NO_PROGRESS_TURNS on the game is drawn.
+     */
+    public int getReversibleTurns() {
+        return positionCount;
+    }
+
+    /**
+     * Returns how many times the current position has come up with the same side to move,
+     * counting this time. The search for earlier occurrences stops at the last capture or man
+     * move, since no position before it can come back.
+     */
+    public int getRepetitions() {
+        int repetitions = 1;
+        for (int i = positionCount - 2; i >= 0; i -= 2) {
+            if (positions[i] == hash) {
+                repetitions++;
+            }
+        }
+        return repetitions;
+    }
+
+    /**
+     * Returns true if the game is drawn, by the position coming up for the third time or by
+     * NO_PROGRESS_TURNS turns without a capture or a man moving.
+     */
+    public boolean isDraw() {
+        return positionCount >= NO_PROGRESS_TURNS || getRepetitions() >= 3;
+    }
+
+    /**
+     * Returns the hashes of up to the last count positions before the current one since the last
+     * capture or man move, oldest first, for the search to continue the history from.
+     */
+    long[] getPositionHistory(int count) {
+        return Arrays.copyOfRange(positions, Math.max(0, positionCount - count), positionCount);
+    }
+
+    /**
+     * Builds a board from piece masks, as returned by getBlackPieces, getWhitePieces and getKings.
+     */
+    static Board fromMasks(long black, long white, long kings) {
+        return fromMasks(Geometry.STANDARD, black, white, kings);
+    }
+
+    static Board fromMasks(Geometry geometry, long black, long white, long kings) {
+        checkPieceCount(Long.bitCount(black));
+        checkPieceCount(Long.bitCount(white));
+        return new Board(geometry, black, white, kings, Zobrist.hash(black, white, kings), -1);
+    }
+
+    // A chain captures one piece per hop, so a side with no more than MAX_TURN_HOPS pieces keeps
+    // every chain of the opponent in one turn.
+    private static void checkPieceCount(int pieces) {
+        if (pieces > MAX_TURN_HOPS) {
+            throw new IllegalArgumentException(pieces + " pieces of one side, more than the " + MAX_TURN_HOPS
+                + " a turn can capture");
+        }
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    long getBlackPieces() {
+        return black;
+    }
+
+    long getWhitePieces() {
+        return white;
+    }
+
+    long getKings() {
+        return kings;
+    }
+
+    public static int encodeMove(int from, int to) {
+        return from | to << 6;
+    }
+
+    public int[] decodeMove(int move) {
+        int from = move & 63, to = (move >>> 6) & 63;
+        return new int[]{row(from), column(from), row(to), column(to)};
+    }
+
+    /**
+     * Plays a move from encodeMove the same way as move, without checking it, so that
+     * unmakeMove can take it back. The side to move stays the same while getChainSquare is set.
+     */
+    public void makeMove(int move) {
+        int from = move & 63, to = (move >>> 6) & 63;
+        int previousChainSquare = chainSquare;
+        boolean jump = makeHop(from, to, FIRST_HOP | (long) (previousChainSquare + 1) << 22);
+        chainSquare = -1;
+        if (jump) {
+            long jumps = getJumpTargets(to);
+            while (Long.bitCount(jumps) == 1) {
+                from = to;
+                to = Long.numberOfTrailingZeros(jumps);
+                makeHop(from, to, 0);
+                jumps = getJumpTargets(to);
+            }
+            if (jumps != 0) {
+                chainSquare = to;
+            }
+        }
+    }
+
+    /**
+     * Takes back the last makeMove, including the jumps it made on its own, and returns the
+     * square the moved piece started from.
+     */
+    public int unmakeMove() {
+        while (true) {
+            long record = undoStack[--undoSize];
+            int from = (int) record & 63, to = (int) (record >>> 6) & 63;
+            int pieceType = getPieceType(bit(to));
+            removePiece(to);
+            if ((record & PROMOTION) != 0) {
+                pieceType -= 2;
+            }
+            putPiece(from, pieceType);
+            if ((record & CAPTURE) != 0) {
+                putPiece((int) (record >>> 13) & 63, (int) (record >>> 19) & 3);
+            }
+            if ((record & FIRST_HOP) != 0) {
+                chainSquare = (int) (record >>> 22 & 127) - 1;
+                return from;
+            }
+        }
+    }
+
+    private boolean makeHop(int from, int to, long record) {
+        return makeHop(from, to, midSquare(from, to), record);
+    }
+
+    private boolean makeHop(int from, int to, int mid, long record) {
+        record |= from | (long) to << 6;
+        if (mid >= 0) {
+            record |= CAPTURE | (long) mid << 13 | (long) getPieceType(bit(mid)) << 19;
+            removePiece(mid);
+        }
+        if (movePiece(from, to)) {
+            record |= PROMOTION;
+        }
+
+        if (undoSize == undoStack.length) {
+            undoStack = Arrays.copyOf(undoStack, undoSize * 2);
+        }
+        undoStack[undoSize++] = record;
+        return mid >= 0;
+    }
+
+    /**
+     * Plays a whole turn from generateTurns, every jump of a chain included, so that unmakeMove
+     * takes it back in one call. The hops follow the jump tables; nothing is checked or searched.
+     */
+    public void makeTurn(long turn) {
+        int from = (int) turn & 63, hops = getTurnHops(turn);
+        long record = FIRST_HOP | (long) (chainSquare + 1) << 22;
+        chainSquare = -1;
+        if (hops == 0) {
+            makeHop(from, geometry.neighbor(from, (int) (turn >>> TURN_DIRECTIONS) & 3), -1, record);
+            return;
+        }
+        for (int i = 0; i < hops; i++) {
+            int direction = (int) (turn >>> (TURN_DIRECTIONS + 2 * i)) & 3, to = geometry.jump(from, direction);
+            makeHop(from, to, geometry.neighbor(from, direction), i == 0 ? record : 0);
+            from = to;
+        }
+    }
+
+    public static int getTurnHops(long turn) {
+        return (int) (turn >>> 6) & 31;
+    }
+
+    /**
+     * Returns the direction of the given hop of a turn, or of the step of a move.
+     */
+    public static int getTurnDirection(long turn, int hop) {
+        return (int) (turn >>> (TURN_DIRECTIONS + 2 * hop)) & 3;
+    }
+
+    /**
+     * Returns true if the turn moves a king without capturing, so that the position before it
+     * could come back.
+     */
+    public boolean isReversibleTurn(long turn) {
+        return !isCaptureTurn(turn) && (kings & bit((int) turn & 63)) != 0;
+    }
+
+    public static boolean isCaptureTurn(long turn) {
+        return getTurnHops(turn) > 0;
+    }
+
+    /**
+     * Returns the square the piece ends the turn on.
+     */
+    public int getTurnTarget(long turn) {
+        int square = (int) turn & 63, hops = getTurnHops(turn);
+        if (hops == 0) {
+            return geometry.neighbor(square, getTurnDirection(turn, 0));
+        }
+        for (int i = 0; i < hops; i++) {
+            square = geometry.jump(square, getTurnDirection(turn, i));
+        }
+        return square;
+    }
+
+    /**
+     * Returns true if the turn is a plain move that takes a man to the far row.
+     */
+    public boolean isPromotionTurn(long turn) {
+        return !isCaptureTurn(turn) && isPromotion(encodeMove((int) turn & 63, getTurnTarget(turn)));
+    }
+
+    /**
+     * Returns the hops of a turn as {x, y, goalX, goalY}, the way move takes them: the jumps a
+     * chain makes on its own, where the piece has only one jump left, are left out.
+     */
+    public List<int[]> getTurnMoves(long turn) {
+        List<int[]> hops = new ArrayList<>();
+        Board replay = cloneBoard();
+        int square = (int) turn & 63, count = Math.max(1, getTurnHops(turn));
+        for (int hop = 0; hop < count; ) {
+            int to = getHopTarget(turn, square, hop);
+            hops.add(decodeMove(encodeMove(square, to)));
+            int undoBefore = replay.undoSize;
+            replay.makeMove(encodeMove(square, to));
+            for (int played = replay.undoSize - undoBefore; played > 0; played--, hop++) {
+                square = getHopTarget(turn, square, hop);
+            }
+        }
+        return hops;
+    }
+
+    /**
+     * Returns the turn of generateTurns that the hops play, the inverse of getTurnMoves, or -1 if
+     * they are not a whole legal turn of the player.
+     */
+    public long findTurn(List<int[]> hops, Player player) {
+        Board after = cloneBoard();
+        for (int[] hop : hops) {
+            if (after.move(hop[0], hop[1], hop[2], hop[3], player) == MOVE_ILLEGAL) {
+                return -1;
+            }
+        }
+        if (after.chainSquare >= 0) {
+            return -1;
+        }
+        long[] turns = new long[MAX_MOVES];
+        int count = generateTurns(player.isBlackPlayer(), turns);
+        for (int i = 0; i < count; i++) {
+            makeTurn(turns[i]);
+            boolean same = black == after.black && white == after.white && kings == after.kings;
+            unmakeMove();
+            if (same) {
+                return turns[i];
+            }
+        }
+        return -1;
+    }
+
+    private int getHopTarget(long turn, int square, int hop) {
+        int direction = getTurnDirection(turn, hop);
+        return isCaptureTurn(turn) ? geometry.jump(square, direction) : geometry.neighbor(square, direction);
+    }
+
+    public boolean isJumpMove(int move) {
+        return midSquare(move & 63, (move >>> 6) & 63) >= 0;
+    }
+
+    /**
+     * Returns true if the move takes a man to the far row, where it becomes a king.
+     */
+    public boolean isPromotion(int move) {
+        long from = bit(move & 63), to = bit((move >>> 6) & 63);
+        if ((kings & from) != 0) {
+            return false;
+        }
+        return (to & geometry.getKingRow((black & from) != 0)) != 0;
+    }
+
+    /**
+     * Returns the square of the piece that has to jump again before the turn ends, or -1.
+     */
+    public int getChainSquare() {
+        return chainSquare;
+    }
+
     public boolean isValidMove(int x, int y, int goalX, int goalY, Player currentPlayer) {
         if (!inBounds(x, y) || !inBounds(goalX, goalY)) {
             return false;
         }
-            
-        Piece start = getPiece(x, y);
-        Piece end = getPiece(goalX, goalY);
-        
-        if (start == null || end != null) {
+
+        int from = square(x, y), to = square(goalX, goalY);
+        if (from < 0 || to < 0 || (getPieces(currentPlayer) & bit(from)) == 0) {
             return false;
         }
-        
-        if (start.getColor() != currentPlayer.getPieceColor()) {
+        boolean jump = midSquare(from, to) >= 0;
+        if (chainSquare >= 0 && (from != chainSquare || !jump)) {
             return false;
         }
 
-        int deltaX = calcDeltaX(x, goalX), deltaY = calcDeltaY(y, goalY);
-        int absDeltaX = Math.abs(deltaX), absDeltaY = Math.abs(deltaY);
-        boolean jump = isJump(x, y, goalX, goalY);
-        int maxDistance = jump ? 2 : 1;
-        
-        if (absDeltaX != maxDistance || absDeltaY != maxDistance) {
-            return false;
+        long targets = jump ? getJumpTargets(from) : getMoveTargets(from);
+        return (targets & bit(to)) != 0;
+    }
+
+    private int midSquare(int from, int to) {
+        for (int direction = 0; direction < 4; direction++) {
+            if (geometry.jump(from, direction) == to) {
+                return geometry.neighbor(from, direction);
+            }
         }
-        
-        if (!start.isKing()) {
-            if (start.isBlack() && deltaX >= 0) {
-                return false;
-            } else if (!start.isBlack() && deltaX <= 0) {
-                return false;
+        return -1;
+    }
+
+    private static boolean canMove(boolean blackPiece, boolean king, int direction) {
+        return king || (blackPiece ? direction < 2 : direction >= 2);
+    }
+
+    private long getMoveTargets(int from) {
+        long piece = bit(from);
+        return geometry.steps(from, (black & piece) != 0, (kings & piece) != 0) & ~(black | white);
+    }
+
+    private long getJumpTargets(int from) {
+        long piece = bit(from), occupied = black | white, targets = 0;
+        boolean blackPiece = (black & piece) != 0, king = (kings & piece) != 0;
+        long opponent = blackPiece ? white : black;
+        for (int direction = 0; direction < 4; direction++) {
+            int to = geometry.jump(from, direction);
+            if (to >= 0 && canMove(blackPiece, king, direction)
+                && (opponent & bit(geometry.neighbor(from, direction))) != 0 && (occupied & bit(to)) == 0) {
+                targets |= bit(to);
             }
         }
-        
-        return jump ? isValidJump(x, y, goalX, goalY) : true;
+        return targets;
     }
-    
-    private boolean isValidJump(int x, int y, int goalX, int goalY) {
-        int midX = calcMidX(x, goalX), midY = calcMidY(y, goalY);
-        if (!inBounds(midX, midY)) {
-            return false;
+
+    /**
+     * Returns every move and jump of the given player as {x, y, goalX, goalY}, jumps first.
+     */
+    public List<int[]> getAllMoves(Player currentPlayer) {
+        int[] moves = new int[MAX_MOVES];
+        return decodeMoves(moves, generateMoves(currentPlayer.isBlackPlayer(), moves));
+    }
+
+    public List<int[]> getAllJumps(Player currentPlayer) {
+        int[] jumps = new int[MAX_MOVES];
+        return decodeMoves(jumps, generateCaptures(currentPlayer.isBlackPlayer(), jumps));
+    }
+
+    /**
+     * Writes every move and jump of one side into moves as encodeMove values, jumps first, and
+     * returns how many were written. The targets of each piece come from the geometry's tables,
+     * and nothing is allocated, so the caller can reuse one buffer of MAX_MOVES per ply.
+     */
+    public int generateMoves(boolean blackPieces, int[] moves) {
+        int count = generateCaptures(blackPieces, moves);
+        if (chainSquare >= 0) {
+            return count;
         }
-        
-        Piece midPiece = getPiece(midX, midY);
-        Piece start = getPiece(x, y), end = getPiece(goalX, goalY);
-        if (midPiece == null) {
-            return false;
+
+        for (long pieces = blackPieces ? black : white; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            count = addMoves(moves, count, from, getMoveTargets(from));
         }
-        
-        if (midPiece.getColor() == start.getColor()) {
-            return false;
+        return count;
+    }
+
+    /**
+     * Writes only the jumps of one side into moves, like generateMoves. During a chain jump only
+     * the chain piece's jumps are written.
+     */
+    public int generateCaptures(boolean blackPieces, int[] moves) {
+        long pieces = chainSquare >= 0 ? bit(chainSquare) : blackPieces ? black : white;
+        int count = 0;
+        for (; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            count = addMoves(moves, count, from, getJumpTargets(from));
         }
-        
-        if ((x + 1 == midX) && (x + 2 != goalX)) {
-            return false;
+        return count;
+    }
+
+    /**
+     * Writes every turn of one side into turns, captures first, and returns how many were written.
+     * Each capture is a whole chain: the jumps are followed through the jump tables on the piece
+     * masks alone, with the captured pieces taken off and a man that reaches the far row going on
+     * as a king, so no board is copied or changed. Only the chain piece moves during a chain jump.
+     */
+    public int generateTurns(boolean blackPieces, long[] turns) {
+        int count = generateCaptureTurns(blackPieces, turns);
+        if (chainSquare >= 0) {
+            return count;
         }
-        
-        if ((x - 1 == midX) && (x - 2 != goalX)) {
-            return false;
+
+        long occupied = black | white;
+        for (long pieces = blackPieces ? black : white; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            boolean king = (kings & bit(from)) != 0;
+            for (int direction = 0; direction < 4; direction++) {
+                int to = geometry.neighbor(from, direction);
+                if (to >= 0 && canMove(blackPieces, king, direction) && (occupied & bit(to)) == 0) {
+                    count = addTurn(turns, count, from | (long) direction << TURN_DIRECTIONS);
+                }
+            }
         }
-        return true;
+        return count;
     }
-    
-    private static boolean isJump(int x, int y, int goalX, int goalY) {
-        int absDeltaX = Math.abs(calcDeltaX(x, goalX));
-        int absDeltaY = Math.abs(calcDeltaY(y, goalY));
-        return absDeltaX == 2 && absDeltaY == 2;
+
+    /**
+     * Writes only the capture turns of one side into turns, like generateTurns.
+     */
+    public int generateCaptureTurns(boolean blackPieces, long[] turns) {
+        long pieces = chainSquare >= 0 ? bit(chainSquare) : blackPieces ? black : white;
+        long opponent = blackPieces ? white : black;
+        int count = 0;
+        for (; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long occupied = (black | white) & ~bit(from);
+            count = addCaptureTurns(turns, count, from, (kings & bit(from)) != 0, blackPieces, occupied, opponent,
+                from, 0);
+        }
+        return count;
+    }
+
+    /**
+     * Follows every jump open to the piece on square, which has made hops jumps so far, and
+     * writes the turn once the chain cannot go on.
+     */
+    private int addCaptureTurns(long[] turns, int count, int square, boolean king, boolean blackPiece,
+                                long occupied, long opponent, long turn, int hops) {
+        boolean extended = false;
+        for (int direction = 0; direction < 4; direction++) {
+            int to = geometry.jump(square, direction);
+            if (to < 0 || !canMove(blackPiece, king, direction)) {
+                continue;
+            }
+            long mid = bit(geometry.neighbor(square, direction));
+            if ((opponent & mid) == 0 || (occupied & bit(to)) != 0) {
+                continue;
+            }
+            extended = true;
+            boolean promoted = king || (bit(to) & geometry.getKingRow(blackPiece)) != 0;
+            count = addCaptureTurns(turns, count, to, promoted, blackPiece, occupied & ~mid, opponent & ~mid,
+                turn | (long) direction << (TURN_DIRECTIONS + 2 * hops), hops + 1);
+        }
+        if (!extended && hops > 0) {
+            count = addTurn(turns, count, turn | (long) hops << 6);
+        }
+        return count;
+    }
+
+    private static int addTurn(long[] turns, int count, long turn) {
+        if (count == turns.length) {
+            throw new IllegalStateException("More than " + turns.length + " turns to write");
+        }
+        turns[count] = turn;
+        return count + 1;
+    }
+
+    private static int addMove(int[] moves, int count, int move) {
+        if (count == moves.length) {
+            throw new IllegalStateException("More than " + moves.length + " moves to write");
+        }
+        moves[count] = move;
+        return count + 1;
     }
 
-    private static int calcDeltaX(int x, int goalX) {
-        return x - goalX;
+    private List<int[]> decodeMoves(int[] moves, int count) {
+        List<int[]> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(decodeMove(moves[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Counts the plain (non-jump) moves of the given player without listing them.
+     */
+    public int countSimpleMoves(Player currentPlayer) {
+        return countSimpleMoves(currentPlayer.isBlackPlayer());
     }
-    
-    private static int calcDeltaY(int y, int goalY) {
-        int deltaY = y - goalY, absDeltaY = Math.abs(deltaY);
-        int tunnelDeltaY = deltaY < 0 ? absDeltaY - BOARD_COLUMNS : BOARD_COLUMNS - absDeltaY; 
-        return absDeltaY > 2 ? tunnelDeltaY : deltaY;
+
+    public int countSimpleMoves(boolean blackPieces) {
+        if (chainSquare >= 0) {
+            return 0;
+        }
+
+        int count = 0;
+        for (long pieces = blackPieces ? black : white; pieces != 0; pieces &= pieces - 1) {
+            count += Long.bitCount(getMoveTargets(Long.numberOfTrailingZeros(pieces)));
+        }
+        return count;
     }
-    
-    private int calcMidX(int x, int goalX) {
-        return (x + goalX) / 2;
+
+    private static int addMoves(int[] moves, int count, int from, long targets) {
+        for (; targets != 0; targets &= targets - 1) {
+            count = addMove(moves, count, encodeMove(from, Long.numberOfTrailingZeros(targets)));
+        }
+        return count;
     }
-    
-    private int calcMidY(int y, int goalY) {
-        int midY;
-        if (crossRightBorderJump(y, goalY)) {
-            midY = (y + 1) % BOARD_COLUMNS;
-        } else if (crossLeftBorderJump(y, goalY)) {
-            midY = (y - 1 + BOARD_COLUMNS) % BOARD_COLUMNS;
+
+    /**
+     * Returns the goal squares {x, y} the piece on (x, y) can reach with a move or a jump.
+     */
+    public List<int[]> getAvailableMoves(int x, int y, boolean jump, Player currentPlayer) {
+        List<int[]> result = new ArrayList<>();
+        if (!inBounds(x, y) || square(x, y) < 0 || (getPieces(currentPlayer) & bit(square(x, y))) == 0) {
+            return result;
+        }
+        if (chainSquare >= 0 && (square(x, y) != chainSquare || !jump)) {
+            return result;
+        }
+
+        long targets = jump ? getJumpTargets(square(x, y)) : getMoveTargets(square(x, y));
+        while (targets != 0) {
+            int goal = Long.numberOfTrailingZeros(targets);
+            result.add(new int[]{row(goal), column(goal)});
+            targets &= targets - 1;
+        }
+        return result;
+    }
+
+    private boolean movePiece(int from, int to) {
+        long fromBit = bit(from), toBit = bit(to);
+        int pieceType = getPieceType(fromBit);
+        removePiece(from);
+        boolean promoted = false;
+        if (pieceType == Zobrist.BLACK_MAN && (toBit & geometry.getKingRow(true)) != 0) {
+            pieceType = Zobrist.BLACK_KING;
+            promoted = true;
+        } else if (pieceType == Zobrist.WHITE_MAN && (toBit & geometry.getKingRow(false)) != 0) {
+            pieceType = Zobrist.WHITE_KING;
+            promoted = true;
+        }
+        putPiece(to, pieceType);
+        return promoted;
+    }
+
+    private void putPiece(int square, int pieceType) {
+        long squareBit = bit(square);
+        if (pieceType == Zobrist.BLACK_MAN || pieceType == Zobrist.BLACK_KING) {
+            black |= squareBit;
         } else {
-            midY = (y + goalY) / 2;
+            white |= squareBit;
+        }
+        if (pieceType >= Zobrist.BLACK_KING) {
+            kings |= squareBit;
+        }
+        hash ^= Zobrist.pieceKey(pieceType, square);
+        pieceCounts[pieceType]++;
+        material += MATERIAL[pieceType];
+    }
+
+    private void removePiece(int square) {
+        if (((black | white) & bit(square)) != 0) {
+            int pieceType = getPieceType(bit(square));
+            hash ^= Zobrist.pieceKey(pieceType, square);
+            pieceCounts[pieceType]--;
+            material -= MATERIAL[pieceType];
         }
-        return midY;
+        long mask = ~bit(square);
+        black &= mask;
+        white &= mask;
+        kings &= mask;
     }
-    
-    private boolean crossRightBorderJump(int y, int goalY) {
-        return (y == 6 && goalY == 0) || (y == 7 && goalY == 1);
+
+    private int getPieceType(long square) {
+        boolean king = (kings & square) != 0;
+        if ((black & square) != 0) {
+            return king ? Zobrist.BLACK_KING : Zobrist.BLACK_MAN;
+        }
+        return king ? Zobrist.WHITE_KING : Zobrist.WHITE_MAN;
     }
-    
-    private boolean crossLeftBorderJump(int y, int goalY) {
-        return (y == 0 && goalY == 6) || (y == 1 && goalY == 7);
+
+    boolean isBlackPiece(int square) {
+        return (black & bit(square)) != 0;
     }
-    
+
     public Piece getPiece(int x, int y) {
-        return inBounds(x, y) ? board[x][y] : null;
+        if (!inBounds(x, y) || square(x, y) < 0) {
+            return null;
+        }
+
+        long square = bit(square(x, y));
+        if (((black | white) & square) == 0) {
+            return null;
+        }
+        return new Piece(x, y, (black & square) != 0 ? Piece.BLACK : Piece.WHITE, (kings & square) != 0,
+            geometry.getRows());
     }
-    
+
     public void setPiece(int x, int y, Piece piece) {
-        if (inBounds(x, y)) {
-            board[x][y] = piece;
+        if (inBounds(x, y) && square(x, y) >= 0) {
+            int square = square(x, y);
+            long side = piece == null ? 0 : piece.isBlack() ? black : white;
+            checkPieceCount(Long.bitCount(side | bit(square)));
+            removePiece(square);
             if (piece != null) {
                 piece.setX(x);
                 piece.setY(y);
+                int pieceType = piece.isBlack() ? Zobrist.BLACK_MAN : Zobrist.WHITE_MAN;
+                putPiece(square, piece.isKing() ? pieceType + 2 : pieceType);
             }
         }
     }
-    
-    private static boolean inBounds(int x, int y) {
-        return x < BOARD_ROWS && x >= 0 && y < BOARD_COLUMNS && y >= 0;
+
+    private boolean inBounds(int x, int y) {
+        return geometry.inBounds(x, y);
+    }
+
+    /**
+     * Returns the number of the square on this board's geometry, or -1 for an unnumbered
+     * light square.
+     */
+    public int square(int x, int y) {
+        return geometry.square(x, y);
+    }
+
+    private int row(int square) {
+        return geometry.row(square);
+    }
+
+    private int column(int square) {
+        return geometry.column(square);
+    }
+
+    private static long bit(int square) {
+        return 1L << square;
+    }
+
+    private long getPieces(Player player) {
+        return player.isBlackPlayer() ? black : white;
     }
-    
+
     public List<Piece> getPieces(String pieceColor) {
         List<Piece> pieces = new ArrayList<>();
-        for (int i = 0; i < BOARD_ROWS; i++) {
-            for (int j = 0; j < BOARD_COLUMNS; j++) {
-                Piece piece = getPiece(i, j);
-                if (piece != null && piece.getColor() == pieceColor) {
-                    pieces.add(piece);
-                }
+        long squares = pieceColor == Piece.BLACK ? black : white;
+        while (squares != 0) {
+            int square = Long.numberOfTrailingZeros(squares);
+            pieces.add(getPiece(row(square), column(square)));
+            squares &= squares - 1;
+        }
+        return pieces;
+    }
+
+    public int countMen(String pieceColor) {
+        return pieceCounts[pieceColor == Piece.BLACK ? Zobrist.BLACK_MAN : Zobrist.WHITE_MAN];
+    }
+
+    public int countKings(String pieceColor) {
+        return pieceCounts[pieceColor == Piece.BLACK ? Zobrist.BLACK_KING : Zobrist.WHITE_KING];
+    }
+
+    public int countPieces(String pieceColor) {
+        return pieceColor == Piece.BLACK
+            ? pieceCounts[Zobrist.BLACK_MAN] + pieceCounts[Zobrist.BLACK_KING]
+            : pieceCounts[Zobrist.WHITE_MAN] + pieceCounts[Zobrist.WHITE_KING];
+    }
+
+    /**
+     * Returns black's material minus white's, men counting 1 and kings 2. The counts behind it
+     * are kept up to date on every move, capture and promotion.
+     */
+    public int getMaterial() {
+        return material;
+    }
+
+    /**
+     * Returns whether the player has any move or jump left, from the bitboards and the step tables.
+     */
+    public boolean hasMoves(Player currentPlayer) {
+        long pieces = chainSquare >= 0 ? bit(chainSquare) : getPieces(currentPlayer);
+        for (; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            if ((chainSquare < 0 && getMoveTargets(from) != 0) || getJumpTargets(from) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the Zobrist key of the pieces on the board, updated on every move.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Builds a board from 64 characters, row 0 first, as printed by printBoard: b and w are
+     * men, B and W are kings and any other character is an empty square.
+     */
+    public static Board parse(String squares) {
+        return parse(Geometry.STANDARD, squares);
+    }
+
+    /**
+     * Builds a board of the given geometry from one character per square, like parse.
+     */
+    public static Board parse(Geometry geometry, String squares) {
+        int rows = geometry.getRows(), columns = geometry.getColumns();
+        if (squares.length() != rows * columns) {
+            throw new IllegalArgumentException("Expected " + rows * columns + " squares: " + squares);
+        }
+
+        Board board = new Board(geometry, 0, 0, 0, 0, -1);
+        for (int i = 0; i < squares.length(); i++) {
+            char c = squares.charAt(i);
+            int square = geometry.square(i / columns, i % columns);
+            if (square < 0) {
+                continue;
+            }
+            if (c == 'b' || c == 'B') {
+                board.putPiece(square, c == 'b' ? Zobrist.BLACK_MAN : Zobrist.BLACK_KING);
+            } else if (c == 'w' || c == 'W') {
+                board.putPiece(square, c == 'w' ? Zobrist.WHITE_MAN : Zobrist.WHITE_KING);
             }
         }
-        return pieces; 
+        checkPieceCount(Long.bitCount(board.black));
+        checkPieceCount(Long.bitCount(board.white));
+        return board;
     }
 
     public void printBoard() {
-        for (int i = 0; i < BOARD_ROWS; i++) {
-            for (int j = 0; j < BOARD_COLUMNS; j++) {
+        for (int i = 0; i < geometry.getRows(); i++) {
+            for (int j = 0; j < geometry.getColumns(); j++) {
                 Piece p = getPiece(i, j);
                 if (p instanceof Piece) {
                     System.out.print("|" + p.getDisplayColor());
@@ -198,23 +858,19 @@ public class Board{
                     System.out.print("| ");
                 }
             }
-            
+
             System.out.print("|\n");
         }
     }
-    
+
     public Board cloneBoard(){
-       Board newBoard = new Board();
-       for (int i = 0; i < BOARD_ROWS; i++) {
-            for (int j = 0; j < BOARD_COLUMNS; j++) {
-                Piece piece = getPiece(i, j);
-                newBoard.setPiece(i, j, (piece == null ? null : piece.clonePiece()));
-            }
-       }
-       return newBoard;
+       Board clone = new Board(geometry, black, white, kings, hash, chainSquare);
+       clone.positions = Arrays.copyOf(positions, Math.max(positionCount, 1));
+       clone.positionCount = positionCount;
+       return clone;
     }
-    
+
     public static void main(String[] args) {
         Board b = new Board();
     }
-}
\ No newline at end of file
+}
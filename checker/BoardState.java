@@ -1,119 +1,88 @@
 import java.util.*;
 
 public class BoardState{
+    // Stand-ins for the side the search is not run for; only their color is used.
+    private static final Player BLACK_SIDE = new Player(Piece.BLACK);
+    private static final Player WHITE_SIDE = new Player(Piece.WHITE);
+    
     private Player currentPlayer, oppoPlayer, rootPlayer;
     private Board currentBoard;
-    private BoardState parent;
-    private List<int[]> moveHistory;
-    private int alpha = Integer.MIN_VALUE;
-    private int beta = Integer.MAX_VALUE;
-    private int score;
+    private Evaluator evaluator;
     
-    public BoardState(Player currentPlayer, Board board, Player rootPlayer, BoardState parent) {
+    public BoardState(Player currentPlayer, Board board, Player rootPlayer) {
         this.currentPlayer = currentPlayer;
-        this.oppoPlayer = getOppoPlayer(currentPlayer);
         this.rootPlayer = rootPlayer;
+        this.oppoPlayer = getOppoPlayer(currentPlayer);
         this.currentBoard = board.cloneBoard();
-        this.moveHistory = new ArrayList<>();
-        this.score = isMaxNode() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
-        this.parent = parent;
+        this.evaluator = rootPlayer != null ? rootPlayer.getEvaluator() : Evaluator.MATERIAL;
     }
     
     public Player getOppoPlayer(Player player) {
-        return player.isBlackPlayer() ? 
-            Game.getInstance().getWhitePlayer() : Game.getInstance().getBlackPlayer();
-    }
-    
-    public int calcScore() {
-        int blackScore = 0, whiteScore = 0;
-        int blackMen = 0, whiteMen = 0, blackKing = 0, whiteKing = 0;
-        
-        for (int row = 0; row < Board.BOARD_ROWS; row++) {
-            for (int col = 0; col < Board.BOARD_COLUMNS; col++) {
-                Piece piece = currentBoard.getPiece(row, col);
-                
-                if (piece == null) {
-                    continue;
-                }
-                
-                if (piece.isBlack()) {
-                    if (piece.isKing()) {
-                        blackKing++;
-                    } else {
-                        blackMen++;
-                    }
-                } else {
-                    if (piece.isKing()) {
-                        whiteKing++;
-                    } else {
-                        whiteMen++;
-                    }
-                }     
-            }
+        if (rootPlayer != null && rootPlayer.isBlackPlayer() != player.isBlackPlayer()) {
+            return rootPlayer;
         }
-        
-        blackScore = blackMen + 2 * blackKing - whiteMen - 2 * whiteKing;
-        whiteScore = -blackScore;
-        score = (rootPlayer.getPieceColor() == Piece.BLACK ? blackScore : whiteScore);
-
-        return score;
-    }
-    
-    public void addToMoveHistory(int[] move){
-        moveHistory.add(move);
+        return player.isBlackPlayer() ? WHITE_SIDE : BLACK_SIDE;
     }
     
-    public List<int[]> getMoveHistory() {
-        return moveHistory;
+    /**
+     * Returns the evaluation of the root player's Evaluator from the point of view of the player
+     * to move, the score the negamax search works with.
+     */
+    public int evaluate() {
+        int blackScore = evaluator.evaluate(currentBoard);
+        return currentPlayer.isBlackPlayer() ? blackScore : -blackScore;
     }
     
-    public Player getCurrentPlayer() {
-        return currentPlayer;
-    }
-    
-    public Player getRootPlayer() {
-        return rootPlayer;
+    public long getHash() {
+        return currentBoard.getHash() ^ Zobrist.sideKey(currentPlayer.isBlackPlayer())
+            ^ Zobrist.chainKey(currentBoard.getChainSquare());
     }
     
-    public Board getBoard(){
-        return currentBoard;
+    /**
+     * Plays a move on this state's board in place. The turn passes to the opponent unless the
+     * move left a jump chain to finish.
+     */
+    public void makeMove(int move) {
+        currentBoard.makeMove(move);
+        if (currentBoard.getChainSquare() < 0) {
+            switchPlayer();
+        }
     }
     
-    public boolean isMaxNode() {
-        return currentPlayer == rootPlayer;
+    /**
+     * Plays a whole turn from Board.generateTurns in place; the turn always passes to the opponent.
+     */
+    public void makeTurn(long turn) {
+        currentBoard.makeTurn(turn);
+        switchPlayer();
     }
     
-    public int getAlpha() {
-        return alpha;
+    public void unmakeMove() {
+        int from = currentBoard.unmakeMove();
+        if (currentBoard.isBlackPiece(from) != currentPlayer.isBlackPlayer()) {
+            switchPlayer();
+        }
     }
     
-    public int getBeta() {
-        return beta;
+    private void switchPlayer() {
+        Player player = currentPlayer;
+        currentPlayer = oppoPlayer;
+        oppoPlayer = player;
     }
     
-    public void setAlpha(int alpha) {
-        this.alpha = Math.max(alpha, this.alpha);
+    public Player getCurrentPlayer() {
+        return currentPlayer;
     }
     
-    public void setBeta(int beta) {
-        this.beta = Math.min(beta, this.beta);
+    public Player getRootPlayer() {
+        return rootPlayer;
     }
     
-    public int getScore() {
-        return score;
+    public Board getBoard(){
+        return currentBoard;
     }
     
-    public int updateScore(int score) {
-        this.score = score;
-        return this.score;
-    } 
-    
-    public BoardState getParent() {
-        return parent;
-    }
-
     public boolean gameOver() {
-        return currentBoard.getPieces(Piece.BLACK).size() == 0 ||
-            currentBoard.getPieces(Piece.WHITE).size() == 0;
+        return currentBoard.countPieces(Piece.BLACK) == 0 || currentBoard.countPieces(Piece.WHITE) == 0;
     }
 }
\ No newline at end of file
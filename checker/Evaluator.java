@@ -0,0 +1,138 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A linear evaluation: the weighted sum of a few features of the position, each counted for
+ * black minus white, so the score is from black's point of view. The features only count bits
+ * of the board masks, so evaluating allocates nothing. MATERIAL, men 1 and kings 2 and nothing
+ * else, is what every player uses unless given other weights; Tuner fits them to game results.
+ */
+public class Evaluator{
+    public static int MEN = 0;
+    public static int KINGS = 1;
+    // Men still on their own back row, which keeps the opponent from promoting there.
+    public static int BACK_RANK = 2;
+    // Rows each man has advanced from its own back row.
+    public static int ADVANCEMENT = 3;
+    // Pieces on the two middle rows.
+    public static int CENTER = 4;
+    // Pieces on the first or last column, which can be jumped across the wrap-around border.
+    public static int EDGE = 5;
+    // Plain moves the side could make.
+    public static int MOBILITY = 6;
+    public static int FEATURES = 7;
+    public static String[] NAMES = {"men", "kings", "backrank", "advancement", "center", "edge", "mobility"};
+
+    public static Evaluator MATERIAL = new Evaluator(new int[]{1, 2, 0, 0, 0, 0, 0});
+
+    private int[] weights;
+    private boolean positional;
+
+    public Evaluator(int[] weights) {
+        if (weights.length != FEATURES) {
+            throw new IllegalArgumentException("Expected " + FEATURES + " weights");
+        }
+        this.weights = weights.clone();
+        for (int feature = KINGS + 1; feature < FEATURES; feature++) {
+            positional |= weights[feature] != 0;
+        }
+    }
+
+    /**
+     * Parses weights like "men=100,kings=200,mobility=2"; features left out weigh 0.
+     */
+    public static Evaluator parse(String settings) {
+        int[] weights = new int[FEATURES];
+        for (String setting : settings.trim().split(",")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            String[] pair = setting.split("=");
+            int feature = Arrays.asList(NAMES).indexOf(pair[0].trim());
+            if (feature < 0) {
+                throw new IllegalArgumentException("Unknown evaluation feature: " + pair[0]);
+            }
+            weights[feature] = Integer.parseInt(pair[1].trim());
+        }
+        return new Evaluator(weights);
+    }
+
+    /**
+     * Reads weights written by Tuner, in the format of parse.
+     */
+    public static Evaluator load(String path) throws IOException {
+        return parse(new String(Files.readAllBytes(Paths.get(path))));
+    }
+
+    public int getWeight(int feature) {
+        return weights[feature];
+    }
+
+    /**
+     * Returns the score of the board for black.
+     */
+    public int evaluate(Board board) {
+        int score = weights[MEN] * (board.countMen(Piece.BLACK) - board.countMen(Piece.WHITE))
+            + weights[KINGS] * (board.countKings(Piece.BLACK) - board.countKings(Piece.WHITE));
+        if (positional) {
+            for (int feature = KINGS + 1; feature < FEATURES; feature++) {
+                if (weights[feature] != 0) {
+                    score += weights[feature] * feature(board, feature);
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Writes every feature of the board, black minus white, to features from offset on, the
+     * layout Tuner keeps its positions in.
+     */
+    public static void getFeatures(Board board, short[] features, int offset) {
+        for (int feature = 0; feature < FEATURES; feature++) {
+            features[offset + feature] = (short) feature(board, feature);
+        }
+    }
+
+    /**
+     * Returns one feature of the board, black minus white.
+     */
+    public static int feature(Board board, int feature) {
+        Geometry geometry = board.getGeometry();
+        long black = board.getBlackPieces(), white = board.getWhitePieces(), kings = board.getKings();
+        if (feature == MEN) {
+            return Long.bitCount(black & ~kings) - Long.bitCount(white & ~kings);
+        } else if (feature == KINGS) {
+            return Long.bitCount(black & kings) - Long.bitCount(white & kings);
+        } else if (feature == BACK_RANK) {
+            return Long.bitCount(black & ~kings & geometry.getKingRow(false))
+                - Long.bitCount(white & ~kings & geometry.getKingRow(true));
+        } else if (feature == ADVANCEMENT) {
+            int rows = geometry.getRows(), advancement = 0;
+            for (int row = 1; row < rows - 1; row++) {
+                long mask = geometry.getRowMask(row) & ~kings;
+                advancement += row * Long.bitCount(black & mask) - (rows - 1 - row) * Long.bitCount(white & mask);
+            }
+            return advancement;
+        } else if (feature == CENTER) {
+            long mask = geometry.getRowMask(geometry.getRows() / 2 - 1) | geometry.getRowMask(geometry.getRows() / 2);
+            return Long.bitCount(black & mask) - Long.bitCount(white & mask);
+        } else if (feature == EDGE) {
+            long mask = geometry.getColumnMask(0) | geometry.getColumnMask(geometry.getColumns() - 1);
+            return Long.bitCount(black & mask) - Long.bitCount(white & mask);
+        } else if (feature == MOBILITY) {
+            return board.countSimpleMoves(true) - board.countSimpleMoves(false);
+        }
+        throw new IllegalArgumentException("Unknown evaluation feature: " + feature);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int feature = 0; feature < FEATURES; feature++) {
+            text.append(feature > 0 ? "," : "").append(NAMES[feature]).append('=').append(weights[feature]);
+        }
+        return text.toString();
+    }
+}
@@ -1,3 +1,4 @@
+import java.io.*;
 import java.util.*;
 
 public class Game{
@@ -5,9 +6,14 @@ public class Game{
     private Board board;
     private int turn;
     private Player currentPlayer, blackPlayer, whitePlayer;
+    private Scanner scanner;
 
     public Game() {
-        board = new Board();
+        this(Geometry.STANDARD);
+    }
+
+    public Game(Geometry geometry) {
+        board = new Board(geometry);
         blackPlayer = new Player(Piece.BLACK);
         whitePlayer = new Player(Piece.WHITE);
         currentPlayer = blackPlayer;
@@ -21,8 +27,45 @@ public class Game{
         return instance;
     }
     
+    /**
+     * Lets both players use the endgame tables in the given file, if they have been generated.
+     */
+    public void loadTablebase(String path) {
+        if (!new File(path).exists()) {
+            return;
+        }
+        try {
+            Tablebase tablebase = Tablebase.load(path);
+            blackPlayer.setTablebase(tablebase);
+            whitePlayer.setTablebase(tablebase);
+        } catch (IOException e) {
+            System.out.println("Tablebase not loaded: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Lets both players open from the book in the given file, if it has been built. The moves
+     * are drawn by weight so that simulated games do not all repeat the same opening.
+     */
+    public void loadOpeningBook(String path) {
+        if (!new File(path).exists()) {
+            return;
+        }
+        try {
+            OpeningBook openingBook = OpeningBook.load(path);
+            blackPlayer.setOpeningBook(openingBook, true);
+            whitePlayer.setOpeningBook(openingBook, true);
+        } catch (IOException e) {
+            System.out.println("Opening book not loaded: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Plays a Human-AI game with the human as black. The AI ponders while the human thinks.
+     */
     public void play() {
         turn = 1;
+        whitePlayer.setPondering(true);
         while (!gameOver()) {
             getHumanMove();
             if(gameOver()) break;
@@ -33,6 +76,7 @@ public class Game{
             
             turn++;
         }
+        whitePlayer.setPondering(false);
     }
     
     public void getAIMove() {
@@ -53,7 +97,9 @@ public class Game{
     public void getHumanMove() {
         String color = isBlackTurn() ? "Black" : "white";
         System.out.println(String.format("Enter your move (%s): ", color));
-        Scanner scanner = new Scanner(System.in);
+        if (scanner == null) {
+            scanner = new Scanner(System.in);
+        }
         int move[] = Arrays.stream(scanner.nextLine().split(""))
                            .mapToInt(Integer::parseInt).toArray();
         
@@ -92,23 +138,15 @@ public class Game{
         currentPlayer = isBlackTurn() ? whitePlayer : blackPlayer;
     }
     
+    /**
+     * Returns true if a side has no pieces or the side to move has no moves left, or the game is
+     * drawn by repetition or by the no-progress rule (see Board.isDraw).
+     */
     public boolean gameOver() {
-        List<Piece> blackPieces = board.getPieces(Piece.BLACK);
-        List<Piece> whitePieces = board.getPieces(Piece.WHITE);
-        
-        if (blackPieces.size() == 0 || whitePieces.size() == 0) {
+        if (board.countPieces(Piece.BLACK) == 0 || board.countPieces(Piece.WHITE) == 0 || board.isDraw()) {
             return true;
         }
-        
-        List<Piece> currentPieces = isBlackTurn() ? blackPieces : whitePieces;
-        
-        for (Piece piece : currentPieces) {
-            if (piece.hasAvailableMoves(board, currentPlayer)){
-                return false;
-            }
-        }
-        
-        return true;
+        return !board.hasMoves(currentPlayer);
     }
     
     public Player getWhitePlayer() {
@@ -123,8 +161,13 @@ public class Game{
         System.out.println(String.format("Turn %d: %d,%d -> %d,%d", turn, x, y, goalX, goalY));
     }
     
+    /**
+     * Usage: java Game [size], the size being a board like 10x10 (8x8 by default).
+     */
     public static void main(String[] args) {
-        Game game = new Game();
+        Game game = new Game(args.length > 0 ? Geometry.parse(args[0]) : Geometry.STANDARD);
+        game.loadOpeningBook(OpeningBook.DEFAULT_FILE);
+        game.loadTablebase(Tablebase.DEFAULT_FILE);
         game.play();
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Replays the games of a file written by GameRecordWriter. The file is memory-mapped a segment
+ * at a time, so files larger than a single mapping can hold are read the same way, and every
+ * turn is played through Board.move, hop by hop, as a game on the console would be. Files of
+ * version 1, from before turns took a long, are read too.
+ */
+public class GameRecordReader{
+    public static int SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * Receives the games as they are replayed.
+     */
+    public interface Listener{
+        /**
+         * Called after each turn with the board it left, black's turns first.
+         */
+        default void turnPlayed(Board board, long turn, boolean black) {
+        }
+
+        /**
+         * Called at the end of each game with its final board, its result and its length.
+         */
+        default void gameOver(Board board, int result, int turns) {
+        }
+    }
+
+    private String path;
+    private Geometry geometry;
+    private int version;
+    private long size;
+
+    private GameRecordReader(String path, Geometry geometry, int version, long size) {
+        this.path = path;
+        this.geometry = geometry;
+        this.version = version;
+        this.size = size;
+    }
+
+    public static GameRecordReader open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(GameRecordWriter.HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.position() < GameRecordWriter.HEADER_SIZE || header.getInt(0) != GameRecordWriter.MAGIC
+                || header.get(4) < 1 || header.get(4) > GameRecordWriter.VERSION) {
+                throw new IOException("Not a game record file: " + path);
+            }
+            Geometry geometry = Geometry.parse(header.get(5) + "x" + header.get(6) + "x" + header.get(7));
+            return new GameRecordReader(path, geometry, header.get(4), channel.size());
+        }
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Replays every game of the file and returns how many there were.
+     *
+     * @throws IOException if the file ends in the middle of a game or holds a turn that is not
+     *     legal on the replayed board
+     */
+    public long replay(Listener listener) throws IOException {
+        Player black = new Player(Piece.BLACK), white = new Player(Piece.WHITE);
+        long games = 0, offset = GameRecordWriter.HEADER_SIZE;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            while (offset < size) {
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min(size - offset, SEGMENT_SIZE));
+                int start = 0;
+                while (data.remaining() >= GameRecordWriter.GAME_HEADER_SIZE
+                    && data.remaining() - GameRecordWriter.GAME_HEADER_SIZE >= data.getInt(start)) {
+                    int end = start + GameRecordWriter.GAME_HEADER_SIZE + data.getInt(start);
+                    int result = data.get(start + 4);
+                    data.position(start + GameRecordWriter.GAME_HEADER_SIZE);
+                    Board board = new Board(geometry);
+                    int turns = 0;
+                    while (data.position() < end) {
+                        long turn = readTurn(data);
+                        Player player = turns % 2 == 0 ? black : white;
+                        if (!playTurn(board, turn, player)) {
+                            throw new IOException("Illegal turn " + turns + " in game " + games + " of " + path);
+                        }
+                        listener.turnPlayed(board, turn, player == black);
+                        turns++;
+                    }
+                    listener.gameOver(board, result, turns);
+                    games++;
+                    start = end;
+                }
+                if (start == 0) {
+                    throw new IOException("Truncated game record file: " + path);
+                }
+                offset += start;
+            }
+        }
+        return games;
+    }
+
+    private long readTurn(ByteBuffer data) {
+        long turn = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = data.get();
+            turn |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (version == 1) {
+            // from (6 bits) | hops (4) | directions from bit 10, to the layout of Board.
+            turn = turn & 63 | (turn >>> 6 & 15) << 6 | turn >>> 10 << 11;
+        }
+        return turn;
+    }
+
+    /**
+     * Plays the hops of a turn with Board.move. A jump the board makes on its own, where the
+     * piece has only one jump left, is skipped over; it is the one the turn takes anyway.
+     */
+    private boolean playTurn(Board board, long turn, Player player) {
+        int square = (int) turn & 63, hops = Board.getTurnHops(turn);
+        if (square >= geometry.getSquares()) {
+            return false;
+        }
+        if (hops == 0) {
+            return play(board, square, geometry.neighbor(square, Board.getTurnDirection(turn, 0)), player)
+                == Board.MOVE_COMPLETED;
+        }
+        for (int hop = 0; hop < hops; ) {
+            int to = geometry.jump(square, Board.getTurnDirection(turn, hop++));
+            int result = play(board, square, to, player);
+            if (result != Board.MOVE_CHAIN_JUMP) {
+                return result == Board.MOVE_COMPLETED;
+            }
+            square = to;
+            while (square != board.getChainSquare() && hop < hops) {
+                square = geometry.jump(square, Board.getTurnDirection(turn, hop++));
+            }
+            if (square != board.getChainSquare()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private int play(Board board, int from, int to, Player player) {
+        if (to < 0) {
+            return Board.MOVE_ILLEGAL;
+        }
+        return board.move(geometry.row(from), geometry.column(from), geometry.row(to), geometry.column(to), player);
+    }
+
+    /**
+     * Replays a record file and prints what it holds: GameRecordReader file
+     */
+    public static void main(String[] args) throws IOException {
+        GameRecordReader reader = open(args[0]);
+        long[] turns = new long[1], results = new long[3];
+        long start = System.nanoTime();
+        long games = reader.replay(new Listener() {
+            @Override
+            public void gameOver(Board board, int result, int length) {
+                turns[0] += length;
+                results[result]++;
+            }
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games on a %s board, %d turns, %.2f bytes per turn%n", games, reader.getGeometry(),
+            turns[0], turns[0] == 0 ? 0 : (reader.size - GameRecordWriter.HEADER_SIZE
+            - games * GameRecordWriter.GAME_HEADER_SIZE) / (double) turns[0]);
+        System.out.printf("black won %d, white won %d, drawn %d%n", results[GameRecordWriter.BLACK_WINS],
+            results[GameRecordWriter.WHITE_WINS], results[GameRecordWriter.DRAW]);
+        System.out.printf("replayed in %.2f s: %.0f games/s, %.0f turns/s%n", seconds, games / seconds,
+            turns[0] / seconds);
+    }
+}
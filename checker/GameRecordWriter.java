@@ -0,0 +1,142 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Appends finished games to a game record file. The file starts with a header (magic, version,
+ * rows, columns and rows of pieces of the board), followed by the games one after another:
+ * the byte length of its turns (4 bytes), the result (1 byte), and every turn of the game as
+ * packed by Board.generateTurns, written as a varint, so a move or a short chain of jumps
+ * takes 2 bytes and a whole chain never more than 9. Version 1 files, written before turns
+ * took a long, packed the hops in 4 bits and the directions from bit 10; GameRecordReader
+ * still reads them.
+ *
+ * Every thread encodes its games into a buffer of its own and only takes the lock to write a
+ * full buffer to the file, so many threads can record games at once without waiting on each
+ * other. Games are written whole, in the order their buffers fill up.
+ */
+public class GameRecordWriter implements Closeable{
+    public static int DRAW = 0;
+    public static int BLACK_WINS = 1;
+    public static int WHITE_WINS = 2;
+    public static int BUFFER_SIZE = 1 << 16;
+
+    static final int MAGIC = 0x434b4752;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int GAME_HEADER_SIZE = 5;
+
+    private FileChannel channel;
+    private List<ByteBuffer> buffers = new ArrayList<>();
+    private ThreadLocal<ByteBuffer> buffer = ThreadLocal.withInitial(this::newBuffer);
+    private AtomicLong games = new AtomicLong();
+
+    private GameRecordWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a record file for the given board. A new file gets the header; games are appended to
+     * an existing one, which must be for the same board.
+     */
+    public static GameRecordWriter open(String path, Geometry geometry) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) VERSION).put((byte) geometry.getRows()).put((byte) geometry.getColumns())
+                .put((byte) geometry.getPieceRows()).flip();
+            if (channel.size() == 0) {
+                writeFully(channel, header);
+            } else {
+                ByteBuffer existing = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(existing, 0);
+                if (!existing.flip().equals(header)) {
+                    throw new IOException("Not a game record file for a " + geometry + " board: " + path);
+                }
+            }
+            channel.position(channel.size());
+            return new GameRecordWriter(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer newBuffer() {
+        ByteBuffer created = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        synchronized (buffers) {
+            buffers.add(created);
+        }
+        return created;
+    }
+
+    /**
+     * Records a game from the start position: the first count turns of turns, black moving
+     * first, and its result (DRAW, BLACK_WINS or WHITE_WINS).
+     */
+    public void write(long[] turns, int count, int result) throws IOException {
+        int maxSize = GAME_HEADER_SIZE + 9 * count;
+        ByteBuffer own = buffer.get(), out = own;
+        if (out.remaining() < maxSize) {
+            flush(out);
+            if (out.remaining() < maxSize) {
+                out = ByteBuffer.allocate(maxSize);
+            }
+        }
+        int start = out.position();
+        out.position(start + GAME_HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            long turn = turns[i];
+            while ((turn & ~0x7f) != 0) {
+                out.put((byte) (turn & 0x7f | 0x80));
+                turn >>>= 7;
+            }
+            out.put((byte) turn);
+        }
+        out.putInt(start, out.position() - start - GAME_HEADER_SIZE).put(start + 4, (byte) result);
+        if (out != own) {
+            flush(out);
+        }
+        games.incrementAndGet();
+    }
+
+    private void flush(ByteBuffer out) throws IOException {
+        out.flip();
+        synchronized (channel) {
+            writeFully(channel, out);
+        }
+        out.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    public long getGames() {
+        return games.get();
+    }
+
+    /**
+     * Writes out the buffers of every thread and closes the file. The threads must be done
+     * writing games.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (buffers) {
+                for (ByteBuffer out : buffers) {
+                    flush(out);
+                }
+                buffers.clear();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,521 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Hosts any number of Human-AI games over a line-based text protocol on a local socket. One
+ * selector thread reads and writes every connection and keeps the game state; the AI turns are
+ * searched on a fixed pool of worker threads with a bounded queue.
+ *
+ * <pre>
+ * NEW [black|white] [timeMillis] [depth]  -> GAME id, then the AI's first turn if the human is white
+ * PLAY id xyXY                            -> CHAIN id | MOVE id xyXY... | OVER id black|white|draw | ILLEGAL id
+ * QUIT id                                 -> BYE id
+ * STATS                                   -> STATS games n turns n queued n
+ * </pre>
+ *
+ * A PLAY is one hop, written like the console game: row and column of the piece, then of the
+ * goal. CHAIN asks for the next hop of a chain jump, MOVE carries every hop of the AI's turn and
+ * OVER ends the game, after the MOVE if the AI's turn ended it. Errors are answered with ERR.
+ * When the worker queue is full the server stops reading from the connection, so a client that
+ * sends faster than the AI plays is held back by TCP flow control rather than by a growing queue.
+ * Every AI turn has a time limit: a timeMillis of 0, or one above the server's maximum, gets the
+ * maximum, so no game can keep a worker searching without end.
+ */
+public class GameServer{
+    public static int DEFAULT_PORT = 7345;
+    public static long DEFAULT_TIME_LIMIT = 100;
+    public static long DEFAULT_MAX_TIME_LIMIT = 10000;
+    public static int DEFAULT_QUEUE_SIZE = 256;
+    public static int DEFAULT_TABLE_SIZE_MB = 16;
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_PENDING_OUTPUT = 64 * 1024;
+    private static final Player BLACK_SIDE = new Player(Piece.BLACK);
+    private static final Player WHITE_SIDE = new Player(Piece.WHITE);
+
+    // One hosted game. Only the selector thread changes it; while busy, a worker is searching
+    // its board and commands for the game are refused.
+    private static class HostedGame{
+        int id, depth;
+        long timeLimitMillis;
+        boolean humanBlack, blackToMove = true, busy, closed;
+        Board board = new Board();
+        Connection connection;
+    }
+
+    private class Connection{
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        Deque<ByteBuffer> output = new ArrayDeque<>();
+        int pendingOutput;
+        // closing: the connection is closed once its output has been written, and nothing more
+        // is read from it.
+        boolean paused, closing, closed;
+        Map<Integer, HostedGame> games = new HashMap<>();
+
+        void send(String line) {
+            ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII));
+            output.add(bytes);
+            pendingOutput += bytes.remaining();
+        }
+    }
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ThreadPoolExecutor workers;
+    private ThreadLocal<Player[]> workerPlayers;
+    private List<Player> players = Collections.synchronizedList(new ArrayList<>());
+    private Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private Deque<Connection> pausedConnections = new ArrayDeque<>();
+    private Tablebase tablebase;
+    private OpeningBook openingBook;
+    private int tableSizeMB = DEFAULT_TABLE_SIZE_MB;
+    private long defaultTimeLimit = DEFAULT_TIME_LIMIT, maxTimeLimit = DEFAULT_MAX_TIME_LIMIT;
+    private int nextGameId = 1, openGames;
+    private long turns;
+    private volatile boolean running = true;
+
+    public GameServer(int port, int threads, int queueSize) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, "game-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        workerPlayers = ThreadLocal.withInitial(() -> new Player[]{createPlayer(Piece.BLACK), createPlayer(Piece.WHITE)});
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void setTableSize(int sizeInMB) {
+        tableSizeMB = sizeInMB;
+    }
+
+    public void setTimeLimit(long timeLimitMillis) {
+        defaultTimeLimit = timeLimitMillis;
+    }
+
+    /**
+     * Caps the time of every AI turn; a game asking for no limit or a longer one gets this.
+     */
+    public void setMaxTimeLimit(long timeLimitMillis) {
+        maxTimeLimit = Math.max(1, timeLimitMillis);
+    }
+
+    /**
+     * Lets the AI use the given endgame tables and opening book; either may be null.
+     */
+    public void setKnowledge(Tablebase tablebase, OpeningBook openingBook) {
+        this.tablebase = tablebase;
+        this.openingBook = openingBook;
+    }
+
+    // Each worker thread searches with its own pair of players, so their transposition tables
+    // are reused from game to game without being shared between threads.
+    private Player createPlayer(String color) {
+        Player player = new Player(color);
+        player.setTableSize(tableSizeMB);
+        player.setTablebase(tablebase);
+        if (openingBook != null) {
+            player.setOpeningBook(openingBook, true);
+        }
+        players.add(player);
+        return player;
+    }
+
+    /**
+     * Serves connections until close is called.
+     */
+    public void run() throws IOException {
+        while (running) {
+            selector.select();
+            Runnable completion;
+            while ((completion = completions.poll()) != null) {
+                completion.run();
+            }
+            resumePausedConnections();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    try {
+                        accept();
+                    } catch (IOException e) {
+                        System.out.println("Connection not accepted: " + e.getMessage());
+                    }
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (!connection.closed && key.isWritable()) {
+                        write(connection);
+                    }
+                } catch (IOException e) {
+                    close(connection);
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        workers.shutdownNow();
+        synchronized (players) {
+            for (Player player : players) {
+                player.close();
+            }
+        }
+    }
+
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection();
+        connection.channel = channel;
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.input) < 0) {
+            close(connection);
+            return;
+        }
+        processInput(connection);
+        flush(connection);
+    }
+
+    private void write(Connection connection) throws IOException {
+        flush(connection);
+    }
+
+    /**
+     * Handles every complete line in the input buffer, stopping at a command that has to wait
+     * for room in the worker queue; that command stays in the buffer until the connection resumes.
+     */
+    private void processInput(Connection connection) {
+        ByteBuffer input = connection.input;
+        input.flip();
+        while (!connection.paused && !connection.closing && !connection.closed) {
+            int end = -1;
+            for (int i = input.position(); i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                break;
+            }
+            int start = input.position();
+            byte[] bytes = new byte[end - start];
+            input.get(bytes);
+            input.get();
+            String line = new String(bytes, StandardCharsets.US_ASCII).trim();
+            if (!line.isEmpty() && !handle(connection, line)) {
+                input.position(start);
+                connection.paused = true;
+                pausedConnections.add(connection);
+            }
+        }
+        input.compact();
+        if (!connection.paused && !connection.closing && !input.hasRemaining()) {
+            connection.send("ERR line too long");
+            connection.closing = true;
+        }
+    }
+
+    private void resumePausedConnections() {
+        while (!pausedConnections.isEmpty() && hasRoom()) {
+            Connection connection = pausedConnections.poll();
+            connection.paused = false;
+            if (connection.closed) {
+                continue;
+            }
+            processInput(connection);
+            try {
+                flush(connection);
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * Writes as much queued output as the socket takes, then reads only while the connection is
+     * neither paused nor holding too much unwritten output.
+     */
+    private void flush(Connection connection) throws IOException {
+        if (connection.closed) {
+            return;
+        }
+        while (!connection.output.isEmpty()) {
+            ByteBuffer bytes = connection.output.peek();
+            connection.pendingOutput -= connection.channel.write(bytes);
+            if (bytes.hasRemaining()) {
+                break;
+            }
+            connection.output.poll();
+        }
+        if (connection.closing && connection.output.isEmpty()) {
+            close(connection);
+            return;
+        }
+        int ops = 0;
+        if (!connection.paused && !connection.closing && connection.pendingOutput < MAX_PENDING_OUTPUT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!connection.output.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        connection.key.interestOps(ops);
+    }
+
+    private void close(Connection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        for (HostedGame game : connection.games.values()) {
+            game.closed = true;
+            openGames--;
+        }
+        connection.games.clear();
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Nothing left to do with the connection.
+        }
+    }
+
+    private boolean hasRoom() {
+        return workers.getQueue().remainingCapacity() > 0;
+    }
+
+    /**
+     * Handles one command line; returns false if it needs a worker and the queue is full.
+     */
+    private boolean handle(Connection connection, String line) {
+        String[] words = line.split("\\s+");
+        try {
+            switch (words[0]) {
+                case "NEW":
+                    return newGame(connection, words);
+                case "PLAY":
+                    return play(connection, words);
+                case "QUIT":
+                    quit(connection, words);
+                    return true;
+                case "STATS":
+                    connection.send(String.format("STATS games %d turns %d queued %d", openGames, turns,
+                        workers.getQueue().size()));
+                    return true;
+                default:
+                    connection.send("ERR unknown command " + words[0]);
+                    return true;
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            connection.send("ERR bad command " + line);
+            return true;
+        }
+    }
+
+    private boolean newGame(Connection connection, String[] words) {
+        boolean humanBlack = words.length < 2 || !words[1].equals("white");
+        if (!humanBlack && !hasRoom()) {
+            return false;
+        }
+        HostedGame game = new HostedGame();
+        game.id = nextGameId++;
+        game.humanBlack = humanBlack;
+        long timeLimitMillis = words.length > 2 ? Long.parseLong(words[2]) : defaultTimeLimit;
+        game.timeLimitMillis = timeLimitMillis > 0 ? Math.min(timeLimitMillis, maxTimeLimit) : maxTimeLimit;
+        game.depth = words.length > 3 ? Integer.parseInt(words[3]) : 0;
+        game.connection = connection;
+        connection.games.put(game.id, game);
+        openGames++;
+        connection.send("GAME " + game.id);
+        if (!humanBlack) {
+            startAiTurn(game);
+        }
+        return true;
+    }
+
+    private boolean play(Connection connection, String[] words) {
+        HostedGame game = connection.games.get(Integer.parseInt(words[1]));
+        if (game == null) {
+            connection.send("ERR " + words[1] + " no such game");
+            return true;
+        }
+        if (game.busy || game.blackToMove != game.humanBlack) {
+            connection.send("ERR " + game.id + " not your turn");
+            return true;
+        }
+        if (!hasRoom()) {
+            return false;
+        }
+        String hop = words[2];
+        if (!hop.matches("[0-7]{4}")) {
+            connection.send("ILLEGAL " + game.id);
+            return true;
+        }
+        int result = game.board.move(hop.charAt(0) - '0', hop.charAt(1) - '0', hop.charAt(2) - '0',
+            hop.charAt(3) - '0', game.humanBlack ? BLACK_SIDE : WHITE_SIDE);
+        if (result == Board.MOVE_ILLEGAL) {
+            connection.send("ILLEGAL " + game.id);
+        } else if (result == Board.MOVE_CHAIN_JUMP) {
+            connection.send("CHAIN " + game.id);
+        } else {
+            game.blackToMove = !game.blackToMove;
+            if (!checkGameOver(game)) {
+                startAiTurn(game);
+            }
+        }
+        return true;
+    }
+
+    private void quit(Connection connection, String[] words) {
+        HostedGame game = connection.games.remove(Integer.parseInt(words[1]));
+        if (game == null) {
+            connection.send("ERR " + words[1] + " no such game");
+            return;
+        }
+        game.closed = true;
+        openGames--;
+        connection.send("BYE " + game.id);
+    }
+
+    private void startAiTurn(HostedGame game) {
+        game.busy = true;
+        workers.execute(() -> {
+            Player player = workerPlayers.get()[game.humanBlack ? 1 : 0];
+            player.setTimeLimit(game.timeLimitMillis);
+            player.setMaxDepth(game.depth > 0 ? game.depth : Player.MAX_SEARCH_DEPTH);
+            List<int[]> hops;
+            try {
+                hops = player.getBestMove(game.board);
+            } catch (RuntimeException e) {
+                hops = null;
+            }
+            List<int[]> turn = hops;
+            completions.add(() -> finishAiTurn(game, turn));
+            selector.wakeup();
+        });
+    }
+
+    private void finishAiTurn(HostedGame game, List<int[]> hops) {
+        game.busy = false;
+        if (game.closed) {
+            return;
+        }
+        if (hops == null) {
+            game.connection.send("ERR " + game.id + " search failed");
+            game.connection.games.remove(game.id);
+            game.closed = true;
+            openGames--;
+            return;
+        }
+        Player side = game.humanBlack ? WHITE_SIDE : BLACK_SIDE;
+        StringBuilder reply = new StringBuilder("MOVE ").append(game.id);
+        for (int[] hop : hops) {
+            game.board.move(hop[0], hop[1], hop[2], hop[3], side);
+            reply.append(' ').append(hop[0]).append(hop[1]).append(hop[2]).append(hop[3]);
+        }
+        turns++;
+        game.blackToMove = !game.blackToMove;
+        game.connection.send(reply.toString());
+        checkGameOver(game);
+        try {
+            flush(game.connection);
+        } catch (IOException e) {
+            close(game.connection);
+        }
+    }
+
+    /**
+     * Ends the game with OVER if the side to move has no pieces or no moves left, or the game is
+     * drawn.
+     */
+    private boolean checkGameOver(HostedGame game) {
+        Player side = game.blackToMove ? BLACK_SIDE : WHITE_SIDE;
+        boolean lost = game.board.countPieces(side.getPieceColor()) == 0 || !game.board.hasMoves(side);
+        if (!lost && !game.board.isDraw()) {
+            return false;
+        }
+        game.connection.send("OVER " + game.id + (!lost ? " draw" : game.blackToMove ? " white" : " black"));
+        game.connection.games.remove(game.id);
+        game.closed = true;
+        openGames--;
+        return true;
+    }
+
+    /**
+     * Usage: java GameServer [-port n] [-threads n] [-queue n] [-time ms] [-maxtime ms] [-hash mb]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT, threads = Runtime.getRuntime().availableProcessors();
+        int queueSize = DEFAULT_QUEUE_SIZE, tableSizeMB = DEFAULT_TABLE_SIZE_MB;
+        long timeLimit = DEFAULT_TIME_LIMIT, maxTimeLimit = DEFAULT_MAX_TIME_LIMIT;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-queue":
+                    queueSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-time":
+                    timeLimit = Long.parseLong(args[++i]);
+                    break;
+                case "-maxtime":
+                    maxTimeLimit = Long.parseLong(args[++i]);
+                    break;
+                case "-hash":
+                    tableSizeMB = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        GameServer server = new GameServer(port, threads, queueSize);
+        server.setTableSize(tableSizeMB);
+        server.setTimeLimit(timeLimit);
+        server.setMaxTimeLimit(maxTimeLimit);
+        Tablebase tablebase = new File(Tablebase.DEFAULT_FILE).exists() ? Tablebase.load(Tablebase.DEFAULT_FILE) : null;
+        OpeningBook openingBook = new File(OpeningBook.DEFAULT_FILE).exists() ? OpeningBook.load(OpeningBook.DEFAULT_FILE) : null;
+        server.setKnowledge(tablebase, openingBook);
+        System.out.printf("Serving games on port %d with %d workers%n", server.getPort(), threads);
+        server.run();
+    }
+}
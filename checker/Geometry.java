@@ -0,0 +1,227 @@
+import java.util.*;
+
+/**
+ * The size of a board and everything that follows from it, worked out once when the geometry is
+ * built: the numbering of the squares, and per square and direction the neighboring square, the
+ * square a jump lands on and the steps a man or king can take. Move generation only looks these
+ * up, so it costs the same on any size. The columns wrap around, so the number of columns must be
+ * even. A board with at most 64 squares numbers them x * columns + y; a larger one numbers only
+ * its dark squares, row by row. Every piece mask of the engine is one long, so a board can have
+ * at most MAX_SQUARES dark squares: 10x10, 10x12 and 12x10 fit, 12x12 (72) does not.
+ */
+public class Geometry{
+    public static int MAX_SQUARES = 64;
+    public static Geometry STANDARD = new Geometry(Board.BOARD_ROWS, Board.BOARD_COLUMNS, Board.PIECE_ROWS);
+
+    private int rows, columns, pieceRows, squares;
+    private boolean darkNumbering;
+    private int[] squareAt, rowOf, columnOf;
+    // The dark squares in the order position texts number them, row 0 first, and back.
+    private int[] darkSquares, darkNumbers;
+    // At square * 4 + direction, directions as in Board: the square one diagonal step away,
+    // which a jump passes over, and the square the jump lands on; -1 off the top or bottom row.
+    private int[] neighbors, jumps;
+    // At square: the squares a black man, a white man and a king can step to.
+    private long[][] steps = new long[3][];
+    private long blackKingRow, whiteKingRow, blackStart, whiteStart;
+    private long[] rowMasks, columnMasks;
+
+    public Geometry(int rows, int columns, int pieceRows) {
+        if (columns % 2 != 0 || rows < 2 * pieceRows + 1 || pieceRows < 1) {
+            throw new IllegalArgumentException("Unsupported board: " + rows + "x" + columns + " with " + pieceRows
+                + " rows of pieces");
+        }
+        if (rows * columns / 2 > MAX_SQUARES) {
+            throw new IllegalArgumentException("A " + rows + "x" + columns + " board has " + rows * columns / 2
+                + " dark squares, more than the " + MAX_SQUARES + " a 64-bit piece mask holds");
+        }
+        if (pieceRows * columns / 2 > Board.MAX_TURN_HOPS) {
+            throw new IllegalArgumentException("A " + rows + "x" + columns + " board with " + pieceRows
+                + " rows of pieces starts with " + pieceRows * columns / 2 + " pieces a side, more than the "
+                + Board.MAX_TURN_HOPS + " a turn can capture");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.pieceRows = pieceRows;
+        darkNumbering = rows * columns > MAX_SQUARES;
+        squares = darkNumbering ? rows * columns / 2 : rows * columns;
+
+        squareAt = new int[rows * columns];
+        rowOf = new int[squares];
+        columnOf = new int[squares];
+        Arrays.fill(squareAt, -1);
+        int next = 0;
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < columns; y++) {
+                if (darkNumbering && (x + y) % 2 == 0) {
+                    continue;
+                }
+                squareAt[x * columns + y] = next;
+                rowOf[next] = x;
+                columnOf[next++] = y;
+            }
+        }
+
+        darkSquares = new int[rows * columns / 2];
+        darkNumbers = new int[squares];
+        Arrays.fill(darkNumbers, -1);
+        next = 0;
+        for (int x = 0; x < rows; x++) {
+            for (int y = (x + 1) % 2; y < columns; y += 2) {
+                darkNumbers[squareAt[x * columns + y]] = next;
+                darkSquares[next++] = squareAt[x * columns + y];
+            }
+        }
+
+        rowMasks = new long[rows];
+        columnMasks = new long[columns];
+        neighbors = new int[squares * 4];
+        jumps = new int[squares * 4];
+        for (int i = 0; i < 3; i++) {
+            steps[i] = new long[squares];
+        }
+        for (int square = 0; square < squares; square++) {
+            int x = rowOf[square], y = columnOf[square];
+            rowMasks[x] |= 1L << square;
+            columnMasks[y] |= 1L << square;
+            for (int direction = 0; direction < 4; direction++) {
+                int deltaX = direction < 2 ? 1 : -1, deltaY = direction % 2 == 0 ? 1 : -1;
+                neighbors[square * 4 + direction] = wrap(x + deltaX, y + deltaY);
+                jumps[square * 4 + direction] = wrap(x + 2 * deltaX, y + 2 * deltaY);
+                int neighbor = neighbors[square * 4 + direction];
+                if (neighbor >= 0 && (x + y) % 2 != 0) {
+                    steps[direction < 2 ? 0 : 1][square] |= 1L << neighbor;
+                    steps[2][square] |= 1L << neighbor;
+                }
+            }
+            if ((x + y) % 2 != 0) {
+                if (x == rows - 1) {
+                    blackKingRow |= 1L << square;
+                } else if (x == 0) {
+                    whiteKingRow |= 1L << square;
+                }
+                if (x < pieceRows) {
+                    blackStart |= 1L << square;
+                } else if (x >= rows - pieceRows) {
+                    whiteStart |= 1L << square;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a geometry like "10x10" or "10x10x4", the last number being the rows of pieces
+     * each side starts with (one less than half the rows by default).
+     */
+    public static Geometry parse(String size) {
+        String[] parts = size.split("x");
+        int rows = Integer.parseInt(parts[0]);
+        int columns = parts.length > 1 ? Integer.parseInt(parts[1]) : rows;
+        int pieceRows = parts.length > 2 ? Integer.parseInt(parts[2]) : rows / 2 - 1;
+        if (rows == STANDARD.rows && columns == STANDARD.columns && pieceRows == STANDARD.pieceRows) {
+            return STANDARD;
+        }
+        return new Geometry(rows, columns, pieceRows);
+    }
+
+    private int wrap(int x, int y) {
+        if (x < 0 || x >= rows) {
+            return -1;
+        }
+        return squareAt[x * columns + (y + columns) % columns];
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getPieceRows() {
+        return pieceRows;
+    }
+
+    /**
+     * Returns how many squares are numbered, the bits a board of this geometry uses.
+     */
+    public int getSquares() {
+        return squares;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < rows && y >= 0 && y < columns;
+    }
+
+    /**
+     * Returns the number of the square, or -1 for a light square that is not numbered.
+     */
+    public int square(int x, int y) {
+        return squareAt[x * columns + y];
+    }
+
+    public int row(int square) {
+        return rowOf[square];
+    }
+
+    public int column(int square) {
+        return columnOf[square];
+    }
+
+    public int getDarkSquares() {
+        return darkSquares.length;
+    }
+
+    /**
+     * Returns the square of a dark square number, 1 for the first dark square of row 0 up to
+     * getDarkSquares() for the last one of the last row, as Position texts number them; -1 if
+     * there is no such dark square.
+     */
+    public int darkSquare(int number) {
+        return number >= 1 && number <= darkSquares.length ? darkSquares[number - 1] : -1;
+    }
+
+    /**
+     * Returns the dark square number of a square, from 1, or 0 for a light square.
+     */
+    public int darkNumber(int square) {
+        return darkNumbers[square] + 1;
+    }
+
+    public int neighbor(int square, int direction) {
+        return neighbors[square * 4 + direction];
+    }
+
+    public int jump(int square, int direction) {
+        return jumps[square * 4 + direction];
+    }
+
+    /**
+     * Returns the squares one step away the piece on square may move to; men only step forward.
+     */
+    public long steps(int square, boolean black, boolean king) {
+        return steps[king ? 2 : black ? 0 : 1][square];
+    }
+
+    public long getRowMask(int row) {
+        return rowMasks[row];
+    }
+
+    public long getColumnMask(int column) {
+        return columnMasks[column];
+    }
+
+    public long getKingRow(boolean black) {
+        return black ? blackKingRow : whiteKingRow;
+    }
+
+    public long getStartSquares(boolean black) {
+        return black ? blackStart : whiteStart;
+    }
+
+    @Override
+    public String toString() {
+        return rows + "x" + columns + "x" + pieceRows;
+    }
+}
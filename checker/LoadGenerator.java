@@ -0,0 +1,277 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Drives a GameServer with many concurrent games and reports the AI turns per second and the
+ * latency of each turn, from the hop that ends the human turn to the AI's MOVE reply. Every
+ * connection keeps its games going on one thread: the human plays black with random moves, and
+ * a finished game is replaced by a new one until the time is up.
+ */
+public class LoadGenerator{
+    public static int DEFAULT_CONNECTIONS = 4;
+    public static int DEFAULT_GAMES = 250;
+    public static int DEFAULT_SECONDS = 10;
+    public static int DEFAULT_MAX_TURNS = 100;
+    private static final Player BLACK_SIDE = new Player(Piece.BLACK);
+    private static final Player WHITE_SIDE = new Player(Piece.WHITE);
+
+    private static class ClientGame{
+        int id, turns;
+        Board board = new Board();
+        long sentAt;
+    }
+
+    // What one connection adds to the totals.
+    private static class ClientResult{
+        long turns, games, errors;
+        long[] latencies = new long[1024];
+        int count;
+
+        void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    private String host;
+    private int port, gamesPerConnection = DEFAULT_GAMES, maxTurns = DEFAULT_MAX_TURNS;
+    private String gameSettings = "";
+
+    public LoadGenerator(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Runs the games on the given number of connections for the given time, then waits for the
+     * replies still on their way and prints the totals.
+     */
+    public void run(int connections, int seconds) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        List<Future<ClientResult>> futures = new ArrayList<>();
+        long start = System.nanoTime(), end = start + seconds * 1000000000L;
+        try {
+            for (int i = 0; i < connections; i++) {
+                long seed = i;
+                futures.add(pool.submit(() -> drive(end, seed)));
+            }
+            long turns = 0, games = 0, errors = 0;
+            List<ClientResult> results = new ArrayList<>();
+            for (Future<ClientResult> future : futures) {
+                ClientResult result = future.get();
+                results.add(result);
+                turns += result.turns;
+                games += result.games;
+                errors += result.errors;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long[] latencies = collectLatencies(results);
+            System.out.printf("%d connections x %d games: %d turns, %d games finished, %d errors in %.1f s%n",
+                connections, gamesPerConnection, turns, games, errors, elapsed);
+            System.out.printf("%.0f moves/s  latency ms p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                turns / elapsed, percentile(latencies, 0.5), percentile(latencies, 0.9),
+                percentile(latencies, 0.99), percentile(latencies, 0.999), percentile(latencies, 1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private ClientResult drive(long end, long seed) throws IOException {
+        ClientResult result = new ClientResult();
+        Random random = new Random(seed);
+        Map<Integer, ClientGame> games = new HashMap<>();
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+            int outstanding = 0;
+            for (int i = 0; i < gamesPerConnection; i++) {
+                out.write("NEW black " + gameSettings + "\n");
+                outstanding++;
+            }
+            out.flush();
+
+            // Every command gets exactly one reply, except a MOVE that ends the game, which is
+            // followed by OVER.
+            while (outstanding > 0) {
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+                outstanding--;
+                String[] words = line.split(" ");
+                boolean running = System.nanoTime() < end;
+                ClientGame game = words.length > 1 ? games.get(parseId(words[1])) : null;
+                switch (words[0]) {
+                    case "GAME":
+                        game = new ClientGame();
+                        game.id = Integer.parseInt(words[1]);
+                        games.put(game.id, game);
+                        outstanding += running ? playHop(game, out, random) : quit(game, out);
+                        break;
+                    case "CHAIN":
+                        outstanding += playHop(game, out, random);
+                        break;
+                    case "MOVE":
+                        result.record(System.nanoTime() - game.sentAt);
+                        result.turns++;
+                        game.turns++;
+                        for (int i = 2; i < words.length; i++) {
+                            String hop = words[i];
+                            game.board.move(hop.charAt(0) - '0', hop.charAt(1) - '0', hop.charAt(2) - '0',
+                                hop.charAt(3) - '0', WHITE_SIDE);
+                        }
+                        if (game.board.countPieces(Piece.BLACK) == 0 || !game.board.hasMoves(BLACK_SIDE)
+                            || game.board.isDraw()) {
+                            outstanding++;
+                        } else if (!running || game.turns >= maxTurns) {
+                            outstanding += quit(game, out);
+                        } else {
+                            outstanding += playHop(game, out, random);
+                        }
+                        break;
+                    case "OVER":
+                    case "BYE":
+                        result.games++;
+                        games.remove(game.id);
+                        outstanding += running ? newGame(out) : 0;
+                        break;
+                    default:
+                        result.errors++;
+                        if (game != null) {
+                            games.remove(game.id);
+                            outstanding += running ? newGame(out) : 0;
+                        }
+                        break;
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        }
+        return result;
+    }
+
+    private int newGame(Writer out) throws IOException {
+        out.write("NEW black " + gameSettings + "\n");
+        return 1;
+    }
+
+    private static int playHop(ClientGame game, Writer out, Random random) throws IOException {
+        List<int[]> moves = game.board.getAllMoves(BLACK_SIDE);
+        int[] hop = moves.get(random.nextInt(moves.size()));
+        game.board.move(hop[0], hop[1], hop[2], hop[3], BLACK_SIDE);
+        out.write("PLAY " + game.id + " " + hop[0] + hop[1] + hop[2] + hop[3] + "\n");
+        game.sentAt = System.nanoTime();
+        return 1;
+    }
+
+    private static int quit(ClientGame game, Writer out) throws IOException {
+        out.write("QUIT " + game.id + "\n");
+        return 1;
+    }
+
+    private static int parseId(String word) {
+        try {
+            return Integer.parseInt(word);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long[] collectLatencies(List<ClientResult> results) {
+        int count = 0;
+        for (ClientResult result : results) {
+            count += result.count;
+        }
+        long[] latencies = new long[count];
+        count = 0;
+        for (ClientResult result : results) {
+            System.arraycopy(result.latencies, 0, latencies, count, result.count);
+            count += result.count;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    /**
+     * Usage: java LoadGenerator [-host h] [-port n] [-connections n] [-games n] [-seconds n]
+     * [-turns n] [-time ms] [-depth n] [-serve threads]
+     * where -games is per connection, -time and -depth are the AI settings of each game and
+     * -serve starts a GameServer with the given number of workers in the same JVM.
+     */
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = GameServer.DEFAULT_PORT, connections = DEFAULT_CONNECTIONS, seconds = DEFAULT_SECONDS;
+        int games = DEFAULT_GAMES, maxTurns = DEFAULT_MAX_TURNS, serverThreads = 0, depth = 0;
+        long timeLimit = GameServer.DEFAULT_TIME_LIMIT;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-host":
+                    host = args[++i];
+                    break;
+                case "-port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "-connections":
+                    connections = Integer.parseInt(args[++i]);
+                    break;
+                case "-games":
+                    games = Integer.parseInt(args[++i]);
+                    break;
+                case "-seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "-turns":
+                    maxTurns = Integer.parseInt(args[++i]);
+                    break;
+                case "-time":
+                    timeLimit = Long.parseLong(args[++i]);
+                    break;
+                case "-depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "-serve":
+                    serverThreads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        GameServer server = null;
+        if (serverThreads > 0) {
+            server = new GameServer(port, serverThreads, GameServer.DEFAULT_QUEUE_SIZE);
+            GameServer serving = server;
+            Thread thread = new Thread(() -> {
+                try {
+                    serving.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "game-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        LoadGenerator generator = new LoadGenerator(host, port);
+        generator.gamesPerConnection = games;
+        generator.maxTurns = maxTurns;
+        generator.gameSettings = timeLimit + " " + depth;
+        generator.run(connections, seconds);
+        if (server != null) {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Monte Carlo tree search with UCT, the alternative to the alpha-beta Search. The tree is a
+ * fixed pool of nodes kept in parallel arrays: the turn leading to each node, its first child
+ * (the children of a node are allocated next to each other) and child count, and its visits and
+ * points, a win counting 2 points and a draw 1 for the player who made the node's turn. Any number
+ * of threads can run playouts on the same tree: a thread counts its visit on the way down, before
+ * the playout result is in, which is the virtual loss that steers the other threads to other
+ * branches, and adds the points on the way back up. A leaf gets its children once it has been
+ * visited EXPANSION_VISITS times, by whichever thread claims it first.
+ *
+ * Playouts play random turns on the thread's own board, a capture with CAPTURE_PERCENT chance
+ * when there is one, for at most PLAYOUT_TURNS turns, after which the side ahead on material
+ * counts as the winner. They only use the board's move buffers and undo stack, so a playout
+ * allocates nothing.
+ */
+public class MonteCarloSearch{
+    public static double EXPLORATION = 1.0;
+    public static int EXPANSION_VISITS = 2;
+    public static int PLAYOUT_TURNS = 40;
+    public static int CAPTURE_PERCENT = 75;
+
+    // moves take 8 bytes per node, childCounts, firstChild, visits and points 4 each.
+    private static final int BYTES_PER_NODE = 24;
+    private static final int UNEXPANDED = -1;
+    private static final int EXPANDING = -2;
+    private static final int PLAYOUTS_BETWEEN_CHECKS = 16;
+
+    private int capacity;
+    private long[] moves;
+    private int[] childCounts;
+    private AtomicIntegerArray firstChild, visits, points;
+    private AtomicInteger size = new AtomicInteger();
+    private AtomicLong playouts = new AtomicLong();
+    private volatile boolean full;
+    private Board root;
+    private boolean rootBlack;
+    private long nodes;
+    private int maxDepth;
+
+    // What one thread needs to run playouts: its board and move buffer, the path of its current
+    // descent, its random numbers and its counters.
+    private class Worker{
+        Board board = root.cloneBoard();
+        long[] buffer = new long[Board.MAX_MOVES];
+        int[] path = new int[Player.MAX_SEARCH_DEPTH * 4];
+        long random;
+        long nodes;
+        int maxDepth;
+
+        Worker(long seed) {
+            random = seed * 0x9E3779B97F4A7C15L + 1;
+        }
+
+        int nextInt(int bound) {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            return (int) ((random >>> 33) % bound);
+        }
+    }
+
+    /**
+     * Creates a tree whose node pool takes about the given number of MB.
+     */
+    public MonteCarloSearch(int sizeInMB) {
+        capacity = Math.max(1024, (int) Math.min(Integer.MAX_VALUE - 8, (long) sizeInMB * 1024 * 1024 / BYTES_PER_NODE));
+        moves = new long[capacity];
+        childCounts = new int[capacity];
+        firstChild = new AtomicIntegerArray(capacity);
+        visits = new AtomicIntegerArray(capacity);
+        points = new AtomicIntegerArray(capacity);
+    }
+
+    /**
+     * Starts a new tree for the position, with the given side to move. The root is expanded at
+     * once, so every thread finds its turns there.
+     */
+    public void reset(Board board, boolean blackToMove) {
+        root = board.cloneBoard();
+        rootBlack = blackToMove;
+        size.set(1);
+        playouts.set(0);
+        full = false;
+        nodes = 0;
+        maxDepth = 0;
+        initNode(0, 0);
+        expand(0, root, rootBlack, new long[Board.MAX_MOVES]);
+    }
+
+    private void initNode(int node, long move) {
+        moves[node] = move;
+        childCounts[node] = 0;
+        visits.set(node, 0);
+        points.set(node, 0);
+        firstChild.set(node, UNEXPANDED);
+    }
+
+    /**
+     * Runs playouts on the tree until the deadline (System.nanoTime), until the tree has had
+     * playoutLimit playouts, or until stop is set. Several threads may run at once, each with its
+     * own seed.
+     */
+    public void run(long deadline, long playoutLimit, AtomicBoolean stop, long seed) {
+        Worker worker = new Worker(seed);
+        if (childCounts[0] > 1) {
+            while (!stop.get() && System.nanoTime() < deadline && playouts.get() < playoutLimit) {
+                for (int i = 0; i < PLAYOUTS_BETWEEN_CHECKS; i++) {
+                    playout(worker);
+                }
+                playouts.addAndGet(PLAYOUTS_BETWEEN_CHECKS);
+            }
+        }
+        synchronized (this) {
+            nodes += worker.nodes;
+            maxDepth = Math.max(maxDepth, worker.maxDepth);
+        }
+    }
+
+    /**
+     * Goes down the tree by UCT from the root to a leaf, expanding it if it has been visited
+     * often enough, plays out the game from there and adds the result to every node on the path.
+     */
+    private void playout(Worker worker) {
+        Board board = worker.board;
+        int[] path = worker.path;
+        boolean black = rootBlack;
+        int node = 0, depth = 0;
+        visits.incrementAndGet(0);
+        boolean terminal = false;
+        while (depth < path.length - 1) {
+            int first = firstChild.get(node);
+            if (first < 0) {
+                if (first == EXPANDING || visits.get(node) < EXPANSION_VISITS || !expand(node, board, black, worker.buffer)) {
+                    break;
+                }
+                first = firstChild.get(node);
+            }
+            int count = childCounts[node];
+            if (count == 0) {
+                terminal = true;
+                break;
+            }
+            node = select(node, first, count);
+            visits.incrementAndGet(node);
+            board.makeTurn(moves[node]);
+            black = !black;
+            path[++depth] = node;
+        }
+        worker.nodes += depth;
+        worker.maxDepth = Math.max(worker.maxDepth, depth);
+
+        // Points for the side to move at the leaf, then for each mover on the way up.
+        int result = terminal ? 0 : playout(worker, board, black);
+        for (int i = depth; i > 0; i--) {
+            result = 2 - result;
+            points.addAndGet(path[i], result);
+            board.unmakeMove();
+        }
+    }
+
+    /**
+     * Picks the child with the best UCT value; a child no thread has visited yet comes first.
+     */
+    private int select(int node, int first, int count) {
+        double logVisits = Math.log(Math.max(1, visits.get(node)));
+        int best = first;
+        double bestValue = -1;
+        for (int child = first; child < first + count; child++) {
+            int childVisits = visits.get(child);
+            if (childVisits == 0) {
+                return child;
+            }
+            double value = points.get(child) / (2.0 * childVisits) + EXPLORATION * Math.sqrt(logVisits / childVisits);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds the children of a leaf, unless another thread is already adding them or the pool is
+     * full. Returns true if the node has its children now.
+     */
+    private boolean expand(int node, Board board, boolean black, long[] buffer) {
+        if (full || !firstChild.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+            return false;
+        }
+        int count = board.generateTurns(black, buffer);
+        int first = size.getAndAdd(count);
+        if (first + count > capacity) {
+            full = true;
+            firstChild.set(node, UNEXPANDED);
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            initNode(first + i, buffer[i]);
+        }
+        childCounts[node] = count;
+        firstChild.set(node, first);
+        return true;
+    }
+
+    /**
+     * Plays random turns from the board, captures preferred, and returns the points the side to
+     * move at the start gets: 2 for a win, 1 for a draw, 0 for a loss. The board is left as it was.
+     */
+    private int playout(Worker worker, Board board, boolean black) {
+        long[] buffer = worker.buffer;
+        boolean side = black;
+        int turns = 0, result = -1;
+        for (; turns < PLAYOUT_TURNS; turns++) {
+            int count = board.generateCaptureTurns(side, buffer);
+            if (count == 0 || worker.nextInt(100) >= CAPTURE_PERCENT) {
+                count = board.generateTurns(side, buffer);
+            }
+            if (count == 0) {
+                result = side == black ? 0 : 2;
+                break;
+            }
+            board.makeTurn(buffer[worker.nextInt(count)]);
+            side = !side;
+        }
+        worker.nodes += turns;
+        if (result < 0) {
+            int material = board.getMaterial() * (black ? 1 : -1);
+            result = material > 0 ? 2 : material < 0 ? 0 : 1;
+        }
+        for (int i = 0; i < turns; i++) {
+            board.unmakeMove();
+        }
+        return result;
+    }
+
+    public long getPlayouts() {
+        return playouts.get();
+    }
+
+    /**
+     * Sums the root statistics of the trees, which searched the same position on their own
+     * (root parallelism) or are a single shared tree, and returns the most visited turn. The
+     * score is the expected result of that turn in per mille, from -1000 for a sure loss to
+     * 1000 for a sure win; the principal variation follows the most visited children of the tree
+     * that visited the turn most.
+     */
+    public static SearchResult getResult(MonteCarloSearch[] trees, long nanos) {
+        MonteCarloSearch main = trees[0];
+        Board board = main.root;
+        int count = main.childCounts[0], first = main.firstChild.get(0);
+        long bestMove = 0;
+        int bestTree = 0, bestNode = -1;
+        long bestVisits = -1, bestPoints = 0, playouts = 0, nodes = 0;
+        int depth = 0;
+        for (MonteCarloSearch tree : trees) {
+            playouts += tree.getPlayouts();
+            nodes += tree.nodes;
+            depth = Math.max(depth, tree.maxDepth);
+        }
+        for (int i = 0; i < count; i++) {
+            long move = main.moves[first + i];
+            long moveVisits = 0, movePoints = 0, treeVisits = -1;
+            int moveTree = 0, moveNode = -1;
+            for (int t = 0; t < trees.length; t++) {
+                int child = trees[t].findRootChild(move);
+                if (child >= 0) {
+                    int childVisits = trees[t].visits.get(child);
+                    moveVisits += childVisits;
+                    movePoints += trees[t].points.get(child);
+                    if (childVisits > treeVisits) {
+                        treeVisits = childVisits;
+                        moveTree = t;
+                        moveNode = child;
+                    }
+                }
+            }
+            if (moveVisits > bestVisits) {
+                bestVisits = moveVisits;
+                bestPoints = movePoints;
+                bestMove = move;
+                bestTree = moveTree;
+                bestNode = moveNode;
+            }
+        }
+
+        SearchStats stats = new SearchStats();
+        long[] counters = new long[SearchStats.COUNTERS];
+        counters[SearchStats.NODES] = nodes + playouts;
+        counters[SearchStats.PLAYOUTS] = playouts;
+        depth = Math.min(Math.max(depth, 1), Player.MAX_SEARCH_DEPTH);
+        stats.recordDepth(depth, counters, nanos);
+        stats.finish(nanos, depth);
+        if (bestNode < 0) {
+            return new SearchResult(null, 0, new ArrayList<>(), 0, stats);
+        }
+        int score = bestVisits == 0 ? 0 : (int) Math.round(1000 * (bestPoints / (double) bestVisits - 1));
+        List<int[]> line = trees[bestTree].getPrincipalVariation(bestNode);
+        return new SearchResult(board.getTurnMoves(bestMove), score, line, depth, stats);
+    }
+
+    private int findRootChild(long move) {
+        int first = firstChild.get(0);
+        for (int child = first; child < first + childCounts[0]; child++) {
+            if (moves[child] == move) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private List<int[]> getPrincipalVariation(int node) {
+        List<int[]> line = new ArrayList<>();
+        Board replay = root.cloneBoard();
+        while (node >= 0) {
+            line.addAll(replay.getTurnMoves(moves[node]));
+            replay.makeTurn(moves[node]);
+            int first = firstChild.get(node), next = -1, nextVisits = 0;
+            for (int child = first; first >= 0 && child < first + childCounts[node]; child++) {
+                if (visits.get(child) > nextVisits) {
+                    nextVisits = visits.get(child);
+                    next = child;
+                }
+            }
+            node = next;
+        }
+        return line;
+    }
+}
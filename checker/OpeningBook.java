@@ -0,0 +1,245 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class OpeningBook{
+    public static int DEFAULT_PLIES = 6;
+    public static int DEFAULT_DEPTH = 8;
+    public static int MAX_BOOK_MOVES = 4;
+    public static String DEFAULT_FILE = "checker.book";
+
+    // Records are sorted by key: position key (8 bytes) | hop (2) | ply (1) | weight (1).
+    private static final int MAGIC = 0x43424b31;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 12;
+
+    private ByteBuffer data;
+    private int records, plies;
+    private int maxPly = Integer.MAX_VALUE;
+    private Random random = new Random();
+
+    private OpeningBook(ByteBuffer data) {
+        this.data = data;
+        this.plies = data.getInt(4);
+        this.records = data.getInt(8);
+    }
+
+    /**
+     * Maps a book file written by main; lookups read the records straight from the mapping.
+     */
+    public static OpeningBook load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not an opening book file: " + path);
+            }
+            return new OpeningBook(data);
+        }
+    }
+
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * Ignores book moves of positions more than maxPly turns into the game.
+     */
+    public void setMaxPly(int maxPly) {
+        this.maxPly = maxPly;
+    }
+
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Returns the hops of a book turn for the position, or null if the book has no move for it.
+     * With weightedRandom the turn is drawn by the book weights, otherwise the heaviest is played.
+     * The book only covers the standard board.
+     */
+    public List<int[]> getTurn(Board board, boolean blackToMove, boolean weightedRandom) {
+        if (board.getGeometry() != Geometry.STANDARD) {
+            return null;
+        }
+        Board replay = board.cloneBoard();
+        List<int[]> hops = new ArrayList<>();
+        do {
+            int hop = getHop(key(replay, blackToMove), weightedRandom);
+            if (hop < 0) {
+                return null;
+            }
+            hops.add(replay.decodeMove(hop));
+            replay.makeMove(hop);
+        } while (replay.getChainSquare() >= 0);
+        return hops;
+    }
+
+    private int getHop(long key, boolean weightedRandom) {
+        int first = findFirst(key);
+        int total = 0, best = -1, bestWeight = 0;
+        for (int i = first; i < records && data.getLong(offset(i)) == key; i++) {
+            int weight = data.get(offset(i) + 11) & 0xFF;
+            if ((data.get(offset(i) + 10) & 0xFF) > maxPly) {
+                continue;
+            }
+            total += weight;
+            if (weightedRandom ? random.nextInt(total) < weight : weight > bestWeight) {
+                best = data.getShort(offset(i) + 8) & 0xFFFF;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    private int findFirst(long key) {
+        int low = 0, high = records;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (data.getLong(offset(mid)) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    static long key(Board board, boolean blackToMove) {
+        return board.getHash() ^ Zobrist.sideKey(blackToMove) ^ Zobrist.chainKey(board.getChainSquare());
+    }
+
+    /**
+     * Searches every position reachable by book moves from the start, breadth first, up to the
+     * given number of turns. Every turn of a position is searched to the given depth, and the
+     * turns that score as well as the best one, at most MAX_BOOK_MOVES of them, go into the book.
+     * A turn that was already best one ply shallower gets twice the weight. The hops of a chain
+     * jump are stored under the chain positions, so a book turn is read one hop at a time.
+     */
+    public static Map<Long, Map<Integer, int[]>> build(int plies, int depth, PrintStream log) {
+        Map<Long, Map<Integer, int[]>> book = new HashMap<>();
+        Set<Long> seen = new HashSet<>();
+        Player blackPlayer = new Player(Piece.BLACK), whitePlayer = new Player(Piece.WHITE);
+
+        List<Board> level = new ArrayList<>();
+        level.add(new Board());
+        boolean blackToMove = true;
+        for (int ply = 0; ply < plies && !level.isEmpty(); ply++) {
+            long start = System.nanoTime();
+            List<Board> next = new ArrayList<>();
+            Player mover = blackToMove ? blackPlayer : whitePlayer;
+            Player opponent = blackToMove ? whitePlayer : blackPlayer;
+            for (Board board : level) {
+                if (!seen.add(key(board, blackToMove))) {
+                    continue;
+                }
+                List<List<int[]>> turns = new ArrayList<>();
+                collectTurns(board.cloneBoard(), mover, new ArrayList<>(), turns);
+                int[] shallowScores = scoreTurns(board, turns, mover, opponent, depth - 2);
+                int[] scores = scoreTurns(board, turns, mover, opponent, depth - 1);
+                int shallowBest = Arrays.stream(shallowScores).max().orElse(0);
+                int bestScore = Arrays.stream(scores).max().orElse(0);
+
+                int added = 0;
+                for (int i = 0; i < turns.size() && added < MAX_BOOK_MOVES; i++) {
+                    if (scores[i] < bestScore) {
+                        continue;
+                    }
+                    added++;
+                    int weight = shallowScores[i] == shallowBest ? 2 : 1;
+                    Board replay = board.cloneBoard();
+                    for (int[] hop : turns.get(i)) {
+                        int move = Board.encodeMove(board.square(hop[0], hop[1]), board.square(hop[2], hop[3]));
+                        int[] entry = book.computeIfAbsent(key(replay, blackToMove), k -> new LinkedHashMap<>())
+                            .computeIfAbsent(move, k -> new int[]{0, 0});
+                        entry[0] = ply;
+                        entry[1] = Math.min(entry[1] + weight, 255);
+                        replay.makeMove(move);
+                    }
+                    next.add(play(board, turns.get(i), mover));
+                }
+            }
+            if (log != null) {
+                log.printf("ply %d: %d positions, %d ms%n", ply + 1, level.size(), (System.nanoTime() - start) / 1000000);
+            }
+            level = next;
+            blackToMove = !blackToMove;
+        }
+        return book;
+    }
+
+    /**
+     * Scores each turn by searching the position after it for the opponent.
+     */
+    private static int[] scoreTurns(Board board, List<List<int[]>> turns, Player mover, Player opponent, int depth) {
+        opponent.setMaxDepth(depth);
+        int[] scores = new int[turns.size()];
+        for (int i = 0; i < turns.size(); i++) {
+            opponent.getBestMove(play(board, turns.get(i), mover));
+            scores[i] = -opponent.getScore();
+        }
+        return scores;
+    }
+
+    private static void collectTurns(Board board, Player player, List<int[]> hops, List<List<int[]>> turns) {
+        for (int[] move : board.getAllMoves(player)) {
+            board.makeMove(Board.encodeMove(board.square(move[0], move[1]), board.square(move[2], move[3])));
+            hops.add(move);
+            if (board.getChainSquare() >= 0) {
+                collectTurns(board, player, hops, turns);
+            } else {
+                turns.add(new ArrayList<>(hops));
+            }
+            hops.remove(hops.size() - 1);
+            board.unmakeMove();
+        }
+    }
+
+    private static Board play(Board board, List<int[]> hops, Player player) {
+        Board child = board.cloneBoard();
+        for (int[] hop : hops) {
+            child.move(hop[0], hop[1], hop[2], hop[3], player);
+        }
+        return child;
+    }
+
+    public static void write(Map<Long, Map<Integer, int[]>> book, int plies, String path) throws IOException {
+        List<Long> keys = new ArrayList<>(book.keySet());
+        Collections.sort(keys);
+        int records = 0;
+        for (Map<Integer, int[]> moves : book.values()) {
+            records += moves.size();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(plies);
+            out.writeInt(records);
+            for (long key : keys) {
+                for (Map.Entry<Integer, int[]> move : book.get(key).entrySet()) {
+                    out.writeLong(key);
+                    out.writeShort(move.getKey());
+                    out.writeByte(move.getValue()[0]);
+                    out.writeByte(move.getValue()[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the book: OpeningBook [plies] [depth] [file]
+     */
+    public static void main(String[] args) throws IOException {
+        int plies = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PLIES;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DEPTH;
+        String path = args.length > 2 ? args[2] : DEFAULT_FILE;
+        long start = System.nanoTime();
+        Map<Long, Map<Integer, int[]>> book = build(plies, depth, System.out);
+        write(book, plies, path);
+        System.out.printf("%d positions in %d ms -> %s%n", book.size(), (System.nanoTime() - start) / 1000000, path);
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Perft{
+    public static int DEFAULT_HASH_MB = 64;
+
+    private Player blackPlayer = new Player(Piece.BLACK);
+    private Player whitePlayer = new Player(Piece.WHITE);
+    private boolean bulkCounting = true;
+    private long[] keys, counts;
+    private int mask;
+    private long[] depthKeys = new long[64];
+
+    /**
+     * Counts the positions reached after a number of turns, a turn being a move or a whole
+     * chain of jumps. Subtree counts are cached in a table of the given size, 0 for none.
+     */
+    public Perft(int hashMB, boolean bulkCounting) {
+        this.bulkCounting = bulkCounting;
+        if (hashMB > 0) {
+            int size = Integer.highestOneBit((int) Math.min((long) hashMB * 1024 * 1024 / 16, 1 << 30));
+            keys = new long[size];
+            counts = new long[size];
+            mask = size - 1;
+        }
+        Random random = new Random(0xdeb7);
+        for (int i = 0; i < depthKeys.length; i++) {
+            depthKeys[i] = random.nextLong();
+        }
+    }
+
+    public long perft(Board board, boolean blackToMove, int depth) {
+        if (depth <= 0) {
+            return 1;
+        }
+        Player player = blackToMove ? blackPlayer : whitePlayer;
+        if (depth == 1 && bulkCounting) {
+            return countTurns(board, player);
+        }
+
+        long key = board.getHash() ^ Zobrist.sideKey(blackToMove) ^ Zobrist.chainKey(board.getChainSquare())
+            ^ depthKeys[depth & 63];
+        long cached = probe(key);
+        if (cached >= 0) {
+            return cached;
+        }
+
+        long nodes = 0;
+        for (int[] move : board.getAllMoves(player)) {
+            board.makeMove(encodeMove(board, move));
+            if (board.getChainSquare() >= 0) {
+                nodes += perft(board, blackToMove, depth);
+            } else {
+                nodes += perft(board, !blackToMove, depth - 1);
+            }
+            board.unmakeMove();
+        }
+        store(key, nodes);
+        return nodes;
+    }
+
+    /**
+     * Counts the turns of the player at the last ply: plain moves are counted from the board
+     * masks, and only jumps are played to follow their chains.
+     */
+    private long countTurns(Board board, Player player) {
+        long nodes = board.countSimpleMoves(player);
+        for (int[] jump : board.getAllJumps(player)) {
+            board.makeMove(encodeMove(board, jump));
+            nodes += board.getChainSquare() >= 0 ? countTurns(board, player) : 1;
+            board.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts each root move's subtree on its own thread and returns the counts by move,
+     * in move generation order.
+     */
+    public Map<String, Long> divide(Board board, boolean blackToMove, int depth, int threads)
+        throws InterruptedException, ExecutionException {
+        Player player = blackToMove ? blackPlayer : whitePlayer;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        Map<String, Future<Long>> results = new LinkedHashMap<>();
+        try {
+            for (int[] move : board.getAllMoves(player)) {
+                Board copy = board.cloneBoard();
+                results.put(String.format("%d%d%d%d", move[0], move[1], move[2], move[3]), pool.submit(() -> {
+                    copy.makeMove(encodeMove(copy, move));
+                    boolean sameSide = copy.getChainSquare() >= 0;
+                    return perft(copy, sameSide == blackToMove, sameSide ? depth : depth - 1);
+                }));
+            }
+
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<Long>> result : results.entrySet()) {
+                counts.put(result.getKey(), result.getValue().get());
+            }
+            return counts;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private long probe(long key) {
+        if (keys == null) {
+            return -1;
+        }
+        int index = (int) key & mask;
+        long count = counts[index];
+        return (keys[index] ^ count) == key ? count : -1;
+    }
+
+    private void store(long key, long count) {
+        if (keys != null) {
+            int index = (int) key & mask;
+            keys[index] = key ^ count;
+            counts[index] = count;
+        }
+    }
+
+    private static int encodeMove(Board board, int[] move) {
+        return Board.encodeMove(board.square(move[0], move[1]), board.square(move[2], move[3]));
+    }
+
+    /**
+     * Usage: java Perft depth [-position squares] [-white] [-divide] [-threads n] [-hash mb] [-nobulk]
+     */
+    public static void main(String[] args) throws Exception {
+        int depth = Integer.parseInt(args[0]);
+        Board board = new Board();
+        boolean blackToMove = true, divide = false, bulkCounting = true;
+        int threads = Runtime.getRuntime().availableProcessors(), hashMB = DEFAULT_HASH_MB;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-position":
+                    board = Board.parse(args[++i]);
+                    break;
+                case "-white":
+                    blackToMove = false;
+                    break;
+                case "-divide":
+                    divide = true;
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-hash":
+                    hashMB = Integer.parseInt(args[++i]);
+                    break;
+                case "-nobulk":
+                    bulkCounting = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Perft perft = new Perft(hashMB, bulkCounting);
+        long start = System.nanoTime();
+        long total = 0;
+        for (Map.Entry<String, Long> count : perft.divide(board, blackToMove, depth, threads).entrySet()) {
+            if (divide) {
+                System.out.println(count.getKey() + ": " + count.getValue());
+            }
+            total += count.getValue();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("perft(%d) = %d in %.3f s, %.0f nodes/s", depth, total, seconds, total / seconds));
+    }
+}
@@ -1,7 +1,7 @@
 import java.util.*;
 
 public class Piece{
-    private int x, y;
+    private int x, y, rows = Board.BOARD_ROWS;
     private boolean king;
     private String color;
     private String displayColor;
@@ -12,12 +12,6 @@ public class Piece{
     public static String WHITE = "w";
     public static String KING_WHITE = "W";
     
-    private List<Integer> jumpStartColumns = Arrays.asList(0, 1, 6, 7);
-    private List<Integer> jumpEndColumns = Arrays.asList(6, 7, 0, 1);
-    
-    private List<Integer> moveStartColumns = Arrays.asList(0, 7);
-    private List<Integer> moveEndColumns = Arrays.asList(7, 0);
-    
     public Piece(int x, int y, String color) {
         this.x = x;
         this.y = y;
@@ -26,6 +20,23 @@ public class Piece{
         this.king = false;
     }
     
+    public Piece(int x, int y, String color, boolean king) {
+        this(x, y, color);
+        if (king) {
+            this.king = true;
+            this.displayColor = isBlack() ? KING_BLACK : KING_WHITE;
+            this.kingRowReached = true;
+        }
+    }
+    
+    /**
+     * A piece on a board with the given number of rows, whose last row makes a black man a king.
+     */
+    public Piece(int x, int y, String color, boolean king, int rows) {
+        this(x, y, color, king);
+        this.rows = rows;
+    }
+    
     public int getX() {
         return x;
     }
@@ -35,7 +46,7 @@ public class Piece{
     }
     
     public void setX(int x) {
-        int kingRow = isBlack() ? Board.BOARD_ROWS - 1 : 0;
+        int kingRow = isBlack() ? rows - 1 : 0;
         String kingColor = isBlack() ? KING_BLACK : KING_WHITE;
         if (x == kingRow && !kingRowReached) {
             this.king = true;
@@ -74,48 +85,16 @@ public class Piece{
     }
     
     public List<int[]> getAvailableMovesAndJumps(Board board, Player currentPlayer) {
-        List<int[]> result = new ArrayList<>(getAvailableJumps(board, currentPlayer));
+        List<int[]> result = getAvailableJumps(board, currentPlayer);
         result.addAll(getAvailableMoves(board, false, currentPlayer));
         return result;
     }
     
-    private void addToMoves(Board board, List<int[]> result, int x, int y, int newX, int newY, Player currentPlayer) {
-        if (board.isValidMove(x, y, newX, newY, currentPlayer)) {
-            result.add(new int[]{newX, newY});
-        }
-    }
-    
     public List<int[]> getAvailableMoves(Board board, boolean jump, Player currentPlayer) {
-        List<int[]> result = new ArrayList<>();
-        int start = jump ? -2 : -1;
-        int end = jump ? 2 : 1;
-        int step = jump? 4 : 2;
-        
-        List<Integer> startColumns = jump? jumpStartColumns : moveStartColumns;
-        List<Integer> endColumns = jump? jumpEndColumns : moveEndColumns;
-        
-        for (int i = start; i <= end; i += step) {
-            for (int j = start; j <= end; j += step) {
-                addToMoves(board, result, this.x, this.y, this.x + i, this.y + j, currentPlayer);
-            }
-        }
-        
-        if (isCrossBorderPossible(this.y, jump)) {
-            for (int deltaX: new int[]{start, end}) {
-                addToMoves(board, result, this.x, this.y, this.x + deltaX, 
-                           endColumns.get(startColumns.indexOf(this.y)), currentPlayer);
-            }
-        }
-            
-        return result;
-    }
-    
-    private boolean isCrossBorderPossible(int y, boolean jump) {
-        List<Integer> startColumns = jump? jumpStartColumns : moveStartColumns;
-        return startColumns.indexOf(y) != -1;
+        return board.getAvailableMoves(this.x, this.y, jump, currentPlayer);
     }
     
     public Piece clonePiece() {
-        return new Piece(getX(), getY(), getColor());
+        return new Piece(getX(), getY(), getColor(), isKing(), rows);
     }
 }
\ No newline at end of file
@@ -1,14 +1,187 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class Player{
-    private static int MAX_DEPTH = 4;
+    public static int DEFAULT_MAX_DEPTH = 4;
+    public static int MAX_SEARCH_DEPTH = 64;
+    public static int DEFAULT_TABLE_SIZE_MB = 16;
+    public static int DEFAULT_PLAYOUTS = 20000;
+    public static int ALPHA_BETA = 0;
+    public static int MONTE_CARLO = 1;
     private String pieceColor;
-    private List<int[]> bestMove;
+    private TranspositionTable table;
+    private int tableSizeMB = DEFAULT_TABLE_SIZE_MB;
+    private Tablebase tablebase;
+    private Evaluator evaluator = Evaluator.MATERIAL;
+    private OpeningBook openingBook;
+    private boolean randomBookMoves;
+    private int maxDepth;
+    private long timeLimitMillis, nodeLimit;
+    private int threads = 1;
+    private int algorithm = ALPHA_BETA;
+    private boolean rootParallel;
+    private MonteCarloSearch[] trees;
+    private ExecutorService helperPool, ponderPool;
+    private boolean pondering;
+    private RunningSearch ponder;
+    private SearchResult lastResult = new SearchResult(null, 0, new ArrayList<>(), 0, new SearchStats());
+    
+    // One search in progress: the main search, the helpers next to it and the shared stop flag.
+    // A pondering search runs its main search in the background and keeps its future here.
+    private class RunningSearch{
+        AtomicBoolean stop = new AtomicBoolean();
+        Search main;
+        List<Search> helpers = new ArrayList<>();
+        List<Future<?>> helperResults = new ArrayList<>();
+        Future<SearchResult> result;
+        long key;
+        SearchEvent event = new SearchEvent();
+    }
     
     public Player(String pieceColor) {
         this.pieceColor = pieceColor;
     }
     
+    /**
+     * Sets the transposition table size. The table is only allocated by the first search, so
+     * players that never search cost nothing.
+     */
+    public void setTableSize(int sizeInMB) {
+        stopPondering();
+        tableSizeMB = sizeInMB;
+        table = null;
+        trees = null;
+    }
+    
+    public void clearTable() {
+        if (table != null) {
+            table.clear();
+        }
+    }
+    
+    /**
+     * Probes the given endgame tables in the search, and plays straight from them once the
+     * position has few enough pieces; null turns them off.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    /**
+     * Plays from the given opening book while it has a move for the position; with randomMoves
+     * the book move is drawn by weight instead of taking the heaviest.
+     */
+    public void setOpeningBook(OpeningBook openingBook, boolean randomMoves) {
+        this.openingBook = openingBook;
+        this.randomBookMoves = randomMoves;
+    }
+    
+    public Tablebase getTablebase() {
+        return tablebase;
+    }
+    
+    /**
+     * Scores the positions at the leaves of the search with the given weights; the transposition
+     * table is cleared since its scores came from the old ones.
+     */
+    public void setEvaluator(Evaluator evaluator) {
+        stopPondering();
+        this.evaluator = evaluator;
+        clearTable();
+    }
+    
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+    
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, Math.min(maxDepth, MAX_SEARCH_DEPTH));
+    }
+    
+    /**
+     * Limits each call to getBestMove to the given wall-clock time; 0 means no limit. With a
+     * time or node limit set the search keeps deepening until the limit is hit, or until the
+     * depth given to setMaxDepth if there is one, and plays the move of the last completed depth.
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+    
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+    
+    /**
+     * Searches with the given number of threads. Helper threads run the same iterative
+     * deepening on their own boards, sharing only the transposition table.
+     */
+    public void setThreads(int threads) {
+        stopPondering();
+        this.threads = Math.max(1, threads);
+        trees = null;
+        if (helperPool != null) {
+            helperPool.shutdown();
+            helperPool = null;
+        }
+    }
+    
+    /**
+     * Chooses the search: ALPHA_BETA, the default, or MONTE_CARLO, which runs UCT playouts until
+     * the time limit, or for the node limit in playouts (DEFAULT_PLAYOUTS without either); its
+     * tree takes the table size. The opening book and the tablebase come first either way, and
+     * only the alpha-beta search ponders.
+     */
+    public void setSearchAlgorithm(int algorithm) {
+        stopPondering();
+        this.algorithm = algorithm;
+    }
+    
+    /**
+     * With more than one thread, lets each thread of a Monte Carlo search grow a tree of its own
+     * and adds up their root statistics (root parallelism), instead of all of them sharing one
+     * tree with virtual loss (tree parallelism, the default).
+     */
+    public void setRootParallel(boolean rootParallel) {
+        this.rootParallel = rootParallel;
+        trees = null;
+    }
+    
+    public int getCompletedDepth() {
+        return lastResult.getDepth();
+    }
+    
+    /**
+     * Returns the score of the last move from getBestMove, from this player's point of view.
+     */
+    public int getScore() {
+        return lastResult.getScore();
+    }
+    
+    public long getNodes() {
+        return lastResult.getStats().get(SearchStats.NODES);
+    }
+    
+    public long getPlayouts() {
+        return lastResult.getStats().get(SearchStats.PLAYOUTS);
+    }
+    
+    /**
+     * Returns the share of alpha-beta cutoffs in the last search that came from the first move
+     * tried at the node.
+     */
+    public double getFirstMoveCutoffRate() {
+        return lastResult.getStats().getFirstMoveCutoffRate();
+    }
+    
+    /**
+     * Returns the counters of the last getBestMove, summed over its threads, in total and per
+     * depth. A move from the opening book or the tablebase has empty stats.
+     */
+    public SearchStats getSearchStats() {
+        return lastResult.getStats();
+    }
+    
     public String getPieceColor() {
         return this.pieceColor;
     }
@@ -17,109 +190,311 @@ public class Player{
         return getPieceColor() == Piece.BLACK;
     }
     
-    private int searchTree(int depth, BoardState bs) {
-        if (depth >= MAX_DEPTH || bs.gameOver()) {
-            return bs.calcScore();
-        }
-        
-        Player currentPlayer = bs.getCurrentPlayer();
-        List<int[]> moves = getAllmoves(bs.getBoard(), currentPlayer);
-        int maxScore = Integer.MIN_VALUE;
-     
-        for (int[] move : moves) {
-            List<BoardState> newBsList = makeNewBoardState(bs, move, false);
-            for (BoardState newBs: newBsList) {
-                int score = searchTree(depth + 1, newBs);
-                            
-                if (score > maxScore) {
-                    maxScore = score;
-                    
-                    if (depth == 0) {
-                        bestMove = newBs.getMoveHistory();
-                    }
-                }
-
-                BoardState parent = bs.getParent();
-                        
-                if (bs.isMaxNode()) {
-                    bs.setAlpha(score);
-                    if (parent != null && (parent.getBeta() <= bs.getAlpha())) {
-                        return bs.updateScore(bs.getAlpha());
-                    }
-                } else {
-                    bs.setBeta(score);
-                    if (parent != null && (parent.getAlpha() >= bs.getBeta())) {
-                        return bs.updateScore(bs.getBeta());
-                    }
-                }
+    public List<int[]> getBestMove(Board board) {
+        return search(board).getMove();
+    }
+    
+    /**
+     * Finds the turn to play like getBestMove and returns it with its score, principal variation,
+     * depth and search counters.
+     */
+    public SearchResult search(Board board) {
+        SearchResult result = finishPondering(board);
+        if (result == null) {
+            result = findTurn(board);
+        }
+        lastResult = result;
+        if (pondering && algorithm == ALPHA_BETA) {
+            startPondering(board, result);
+        }
+        return result;
+    }
+    
+    private SearchResult findTurn(Board board) {
+        if (openingBook != null) {
+            List<int[]> bookMove = openingBook.getTurn(board, isBlackPlayer(), randomBookMoves);
+            if (bookMove != null) {
+                return new SearchResult(bookMove, 0, bookMove, 0, new SearchStats());
             }
         }
-        
-        return bs.updateScore((bs.isMaxNode() ? bs.getAlpha() : bs.getBeta()));
-    }
-    
-    private List<BoardState> makeNewBoardState(BoardState bs, int[] move, boolean chainJump) {
-        List<BoardState> bsList = new ArrayList<>();
-        Player currentPlayer = bs.getCurrentPlayer();
-        Player rootPlayer = bs.getRootPlayer();
-        
-        Board board = bs.getBoard().cloneBoard();
-        int result = board.move(move[0], move[1], move[2], move[3], currentPlayer);
- 
-        if (result == Board.MOVE_CHAIN_JUMP) {
-            Piece piece = board.getPiece(move[2], move[3]);
-            for (int [] jump: piece.getAvailableJumps(board, this)) {
-                int[] curJump = new int[]{move[2], move[3], jump[0], jump[1]};
-                BoardState parent = (chainJump ? bs.getParent() : bs);
-                BoardState newBs = new BoardState(currentPlayer, board, rootPlayer, parent);
-                cloneMoveHistory(bs, newBs);
-                newBs.addToMoveHistory(move);
-                
-                List<BoardState> jumpBsList = makeNewBoardState(newBs, curJump, true);
-                bsList.addAll(jumpBsList); 
+        if (tablebase != null) {
+            List<int[]> tablebaseMove = tablebase.getBestTurn(board, isBlackPlayer());
+            if (tablebaseMove != null) {
+                int score = Search.tablebaseScore(tablebase.probe(board, isBlackPlayer()), 0);
+                return new SearchResult(tablebaseMove, score, tablebaseMove, 0, new SearchStats());
             }
-        } else if (result == Board.MOVE_COMPLETED) {
-            if (chainJump) {
-                BoardState newBs = new BoardState(bs.getOppoPlayer(currentPlayer), board, rootPlayer, bs.getParent());
-                cloneMoveHistory(bs, newBs);
-                newBs.addToMoveHistory(move);
-                bsList.add(newBs);
-            } else {          
-                BoardState newBs = new BoardState(bs.getOppoPlayer(currentPlayer), board, rootPlayer, bs);
-                newBs.addToMoveHistory(move);
-                bsList.add(newBs);
+        }
+        if (algorithm == MONTE_CARLO) {
+            return searchMonteCarlo(board);
+        }
+        int depthLimit = getDepthLimit();
+        RunningSearch running = startSearch(board, depthLimit, timeLimitMillis);
+        return finishSearch(running, running.main.iterate(board, 1, depthLimit));
+    }
+    
+    /**
+     * Runs the Monte Carlo search on every thread: the helpers on the helper pool and the last
+     * one on the calling thread, all on one tree or each on its own.
+     */
+    private SearchResult searchMonteCarlo(Board board) {
+        int treeCount = rootParallel ? threads : 1;
+        if (trees == null) {
+            trees = new MonteCarloSearch[treeCount];
+            for (int i = 0; i < treeCount; i++) {
+                trees[i] = new MonteCarloSearch(Math.max(1, tableSizeMB / treeCount));
             }
         }
-                 
-        return bsList;
+        long start = System.nanoTime();
+        long deadline = timeLimitMillis > 0 ? start + timeLimitMillis * 1000000 : Long.MAX_VALUE;
+        long playoutLimit = nodeLimit > 0 ? nodeLimit : timeLimitMillis > 0 ? Long.MAX_VALUE : DEFAULT_PLAYOUTS;
+        long treeLimit = playoutLimit == Long.MAX_VALUE ? playoutLimit : Math.max(1, playoutLimit / treeCount);
+        for (MonteCarloSearch tree : trees) {
+            tree.reset(board, isBlackPlayer());
+        }
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < threads; i++) {
+            MonteCarloSearch tree = trees[rootParallel ? i : 0];
+            long seed = i;
+            helpers.add(getHelperPool().submit(() -> tree.run(deadline, treeLimit, stop, seed)));
+        }
+        trees[0].run(deadline, treeLimit, stop, 0);
+        stop.set(true);
+        for (Future<?> helper : helpers) {
+            waitFor(helper);
+        }
+        SearchResult result = MonteCarloSearch.getResult(trees, System.nanoTime() - start);
+        commitSearchEvent(event, result);
+        return result;
     }
     
-    private void cloneMoveHistory(BoardState pre, BoardState cur) {
-        for (int[] preMove: pre.getMoveHistory()) {
-            cur.addToMoveHistory(preMove);
+    private int getDepthLimit() {
+        if (maxDepth == 0 && (timeLimitMillis > 0 || nodeLimit > 0)) {
+            return MAX_SEARCH_DEPTH;
         }
+        return maxDepth > 0 ? maxDepth : DEFAULT_MAX_DEPTH;
     }
     
-    public List<int[]> getBestMove(Board board) {
-        BoardState bs = new BoardState(this, board, this, null);
-        searchTree(0, bs);
-
-        return bestMove;
+    /**
+     * Starts the helper searches and sets up the main one, which the caller runs.
+     */
+    private RunningSearch startSearch(Board board, int depthLimit, long timeLimitMillis) {
+        RunningSearch running = new RunningSearch();
+        running.event.begin();
+        if (table == null) {
+            table = new TranspositionTable(tableSizeMB);
+        }
+        table.newSearch();
+        for (int i = 1; i < threads; i++) {
+            Search helper = new Search(this, table, running.stop, timeLimitMillis, 0, false);
+            int startDepth = 1 + i % 2;
+            running.helpers.add(helper);
+            running.helperResults.add(getHelperPool().submit(() -> helper.iterate(board, startDepth, depthLimit)));
+        }
+        running.main = new Search(this, table, running.stop, timeLimitMillis, nodeLimit, true);
+        return running;
     }
     
-    public List<int[]> getAllmoves(Board board, Player currentPlayer) {
-        List<int[]> moves = new ArrayList<>();
-        for (Piece piece : board.getPieces(currentPlayer.getPieceColor())) {
-            for (int[] move: piece.getAvailableMovesAndJumps(board, currentPlayer)) {
-                moves.add(new int[]{piece.getX(), piece.getY(), move[0], move[1]});
+    /**
+     * Stops the helpers once the main search is done and adds their counters to its result.
+     */
+    private SearchResult finishSearch(RunningSearch running, SearchResult result) {
+        running.stop.set(true);
+        for (int i = 0; i < running.helpers.size(); i++) {
+            waitFor(running.helperResults.get(i));
+            result.getStats().add(running.helpers.get(i).getStats());
+        }
+        commitSearchEvent(running.event, result);
+        return result;
+    }
+    
+    /**
+     * Keeps searching on the opponent's time: after each search, the position after this
+     * player's turn and the reply the principal variation expects is searched in the background
+     * until the opponent has moved. If the opponent plays that reply, the next search carries on
+     * with the pondering search and its depth, starting the time limit then; otherwise the
+     * pondering search is stopped, and only the entries it left in the transposition table are
+     * used. A node limit counts the nodes searched while pondering.
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+        if (!pondering) {
+            stopPondering();
+        }
+    }
+    
+    /**
+     * Stops the pondering search, if one is running, and waits until all its threads are done.
+     */
+    public void stopPondering() {
+        RunningSearch running = ponder;
+        ponder = null;
+        if (running != null) {
+            cancelSearch(running);
+        }
+    }
+    
+    private void cancelSearch(RunningSearch running) {
+        running.stop.set(true);
+        waitFor(running.result);
+        for (Future<?> helperResult : running.helperResults) {
+            waitFor(helperResult);
+        }
+    }
+    
+    public boolean isPondering() {
+        return ponder != null;
+    }
+    
+    private void startPondering(Board board, SearchResult result) {
+        Board expected = playExpectedReply(board, result);
+        if (expected == null || hasPrecomputedTurn(expected)) {
+            return;
+        }
+        int depthLimit = getDepthLimit();
+        RunningSearch running = startSearch(expected, depthLimit, 0);
+        running.key = key(expected);
+        running.result = getPonderPool().submit(() -> running.main.iterate(expected, 1, depthLimit));
+        ponder = running;
+    }
+    
+    /**
+     * Returns the result of the pondering search if it was searching the given position, and
+     * stops it otherwise.
+     */
+    private SearchResult finishPondering(Board board) {
+        RunningSearch running = ponder;
+        if (running == null) {
+            return null;
+        }
+        if (running.key != key(board)) {
+            stopPondering();
+            return null;
+        }
+        ponder = null;
+        running.main.startClock(timeLimitMillis);
+        SearchResult result = waitFor(running.result);
+        if (result == null || result.getMove() == null) {
+            cancelSearch(running);
+            return null;
+        }
+        return finishSearch(running, result);
+    }
+    
+    /**
+     * Plays this player's turn and the opponent's reply from the principal variation, or returns
+     * null if the variation ends before the reply does.
+     */
+    private Board playExpectedReply(Board board, SearchResult result) {
+        List<int[]> move = result.getMove(), line = result.getPrincipalVariation();
+        if (move == null || line.size() <= move.size()) {
+            return null;
+        }
+        Board expected = board.cloneBoard();
+        for (int[] hop : move) {
+            expected.move(hop[0], hop[1], hop[2], hop[3], this);
+        }
+        Player opponent = new Player(isBlackPlayer() ? Piece.WHITE : Piece.BLACK);
+        for (int i = move.size(); i < line.size(); i++) {
+            int[] hop = line.get(i);
+            if (expected.move(hop[0], hop[1], hop[2], hop[3], opponent) == Board.MOVE_ILLEGAL) {
+                return null;
+            }
+            if (expected.getChainSquare() < 0) {
+                return expected;
             }
         }
-        
-        return moves;
+        return null;
+    }
+    
+    private boolean hasPrecomputedTurn(Board board) {
+        return (openingBook != null && openingBook.getTurn(board, isBlackPlayer(), false) != null)
+            || (tablebase != null && tablebase.probe(board, isBlackPlayer()) != Tablebase.NO_RESULT);
+    }
+    
+    // The position key for this player to move; the side key is the same for every position.
+    private static long key(Board board) {
+        return board.getHash() ^ Zobrist.chainKey(board.getChainSquare());
+    }
+    
+    private void commitSearchEvent(SearchEvent event, SearchResult result) {
+        if (event.shouldCommit()) {
+            SearchStats stats = result.getStats();
+            event.color = pieceColor;
+            event.threads = threads;
+            event.completedDepth = result.getDepth();
+            event.score = result.getScore();
+            event.nodes = stats.get(SearchStats.NODES);
+            event.leaves = stats.get(SearchStats.LEAVES);
+            event.cutoffs = stats.get(SearchStats.CUTOFFS);
+            event.firstMoveCutoffs = stats.get(SearchStats.FIRST_MOVE_CUTOFFS);
+            event.chainExpansions = stats.get(SearchStats.CHAIN_EXPANSIONS);
+            event.tableHits = stats.get(SearchStats.TABLE_HITS);
+            event.quiescenceNodes = stats.get(SearchStats.QUIESCENCE_NODES);
+            event.nodesPerSecond = stats.getNodesPerSecond();
+            event.commit();
+        }
+    }
+    
+    private static <T> T waitFor(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search thread failed", e.getCause());
+        }
+    }
+    
+    /**
+     * Stops pondering and lets the helper and pondering threads go. The player can still search
+     * afterwards; it starts new threads when it needs them.
+     */
+    public void close() {
+        stopPondering();
+        if (helperPool != null) {
+            helperPool.shutdown();
+            helperPool = null;
+        }
+        if (ponderPool != null) {
+            ponderPool.shutdown();
+            ponderPool = null;
+        }
+    }
+    
+    private ExecutorService getHelperPool() {
+        if (helperPool == null) {
+            helperPool = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "search-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return helperPool;
+    }
+    
+    private ExecutorService getPonderPool() {
+        if (ponderPool == null) {
+            ponderPool = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "search-ponder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return ponderPool;
+    }
+    
+    public List<int[]> getAllmoves(Board board, Player currentPlayer) {
+        return board.getAllMoves(currentPlayer);
     }
        
     public static void main(String[] args) {
         Game game = new Game();
+        game.loadOpeningBook(OpeningBook.DEFAULT_FILE);
+        game.loadTablebase(Tablebase.DEFAULT_FILE);
         game.simulatePlay();
     }
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A position as a line of text: the side to move, then the white and the black pieces, like
+ * "B:W21-32:B1-12" for the start. The dark squares are numbered from 1, row 0 first (see
+ * Geometry.darkSquare), so black's men start on the low numbers as in PDN; a K marks a king,
+ * and a run of squares holding the same kind of piece may be written as a range ("K5-7" is
+ * three kings). A board of another size puts its geometry first, as in
+ * "10x10x4:W:W31-50:B1-20". Parsing and writing walk the text and the piece masks once, without
+ * splitting or regular expressions, so a file of many positions is read as fast as it is read
+ * from disk.
+ */
+public class Position{
+    private static Map<String, Geometry> geometries = new ConcurrentHashMap<>();
+
+    private Board board;
+    private boolean blackToMove;
+
+    public Position(Board board, boolean blackToMove) {
+        this.board = board;
+        this.blackToMove = blackToMove;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public boolean isBlackToMove() {
+        return blackToMove;
+    }
+
+    /**
+     * Parses a position written by toString; white space around the fields and a final period
+     * are allowed.
+     *
+     * @throws IllegalArgumentException if the text is not a position, names a square the board
+     *     does not have or puts two pieces on one square
+     */
+    public static Position parse(String text) {
+        int start = 0, end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && (Character.isWhitespace(text.charAt(end - 1)) || text.charAt(end - 1) == '.')) {
+            end--;
+        }
+        Geometry geometry = Geometry.STANDARD;
+        if (start < end && Character.isDigit(text.charAt(start))) {
+            int colon = text.indexOf(':', start);
+            if (colon < 0 || colon >= end) {
+                throw new IllegalArgumentException("Missing side to move: " + text);
+            }
+            geometry = geometries.computeIfAbsent(text.substring(start, colon).trim(), Geometry::parse);
+            start = colon + 1;
+        }
+        return parse(geometry, text, start, end);
+    }
+
+    private static Position parse(Geometry geometry, String text, int start, int end) {
+        int i = skipSpaces(text, start, end);
+        if (i == end) {
+            throw new IllegalArgumentException("Missing side to move: " + text);
+        }
+        char side = Character.toUpperCase(text.charAt(i++));
+        if (side != 'B' && side != 'W') {
+            throw new IllegalArgumentException("Side to move must be B or W: " + text);
+        }
+
+        long black = 0, white = 0, kings = 0;
+        i = skipSpaces(text, i, end);
+        while (i < end) {
+            if (text.charAt(i++) != ':') {
+                throw new IllegalArgumentException("Expected ':' at " + (i - 1) + ": " + text);
+            }
+            i = skipSpaces(text, i, end);
+            char color = i < end ? Character.toUpperCase(text.charAt(i++)) : ' ';
+            if (color != 'B' && color != 'W') {
+                throw new IllegalArgumentException("Piece list must start with B or W: " + text);
+            }
+            while (i < end && text.charAt(i) != ':') {
+                char c = text.charAt(i);
+                if (c == ',' || Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+                boolean king = c == 'K' || c == 'k';
+                if (king) {
+                    i++;
+                }
+                int first = 0, digits = i;
+                while (i < end && Character.isDigit(text.charAt(i))) {
+                    first = first * 10 + text.charAt(i++) - '0';
+                }
+                if (i == digits || i - digits > 3) {
+                    throw new IllegalArgumentException("Expected a square at " + digits + ": " + text);
+                }
+                int last = first;
+                if (i < end && text.charAt(i) == '-') {
+                    i++;
+                    if (i < end && (text.charAt(i) == 'K' || text.charAt(i) == 'k')) {
+                        i++;
+                    }
+                    last = 0;
+                    digits = i;
+                    while (i < end && Character.isDigit(text.charAt(i))) {
+                        last = last * 10 + text.charAt(i++) - '0';
+                    }
+                    if (i == digits || i - digits > 3 || last < first) {
+                        throw new IllegalArgumentException("Bad range of squares at " + digits + ": " + text);
+                    }
+                }
+                for (int number = first; number <= last; number++) {
+                    int square = geometry.darkSquare(number);
+                    if (square < 0) {
+                        throw new IllegalArgumentException("No square " + number + " on a " + geometry + " board: "
+                            + text);
+                    }
+                    long bit = 1L << square;
+                    if (((black | white) & bit) != 0) {
+                        throw new IllegalArgumentException("Two pieces on square " + number + ": " + text);
+                    }
+                    if (color == 'B') {
+                        black |= bit;
+                    } else {
+                        white |= bit;
+                    }
+                    if (king) {
+                        kings |= bit;
+                    }
+                }
+            }
+        }
+        return new Position(Board.fromMasks(geometry, black, white, kings), side == 'B');
+    }
+
+    private static int skipSpaces(String text, int i, int end) {
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Writes the board and side to move in the format parse reads.
+     */
+    public static String format(Board board, boolean blackToMove) {
+        Geometry geometry = board.getGeometry();
+        StringBuilder text = new StringBuilder(128);
+        if (geometry != Geometry.STANDARD) {
+            text.append(geometry).append(':');
+        }
+        text.append(blackToMove ? 'B' : 'W');
+        text.append(":W");
+        appendPieces(text, geometry, board.getWhitePieces(), board.getKings());
+        text.append(":B");
+        appendPieces(text, geometry, board.getBlackPieces(), board.getKings());
+        return text.toString();
+    }
+
+    // Appends the pieces of one side by dark square number, runs of three or more squares of
+    // the same kind of piece as a range.
+    private static void appendPieces(StringBuilder text, Geometry geometry, long pieces, long kings) {
+        boolean first = true;
+        int squares = geometry.getDarkSquares();
+        for (int number = 1; number <= squares; ) {
+            int square = geometry.darkSquare(number);
+            if ((pieces & 1L << square) == 0) {
+                number++;
+                continue;
+            }
+            boolean king = (kings & 1L << square) != 0;
+            int last = number;
+            while (last < squares && (pieces & 1L << geometry.darkSquare(last + 1)) != 0
+                && ((kings & 1L << geometry.darkSquare(last + 1)) != 0) == king) {
+                last++;
+            }
+            if (!first) {
+                text.append(',');
+            }
+            first = false;
+            if (king) {
+                text.append('K');
+            }
+            if (last - number >= 2) {
+                text.append(number).append('-').append(last);
+                number = last + 1;
+            } else {
+                text.append(number++);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format(board, blackToMove);
+    }
+}
@@ -0,0 +1,532 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class Search{
+    private static final int NODES_BETWEEN_CHECKS = 1024;
+    private static final int MAX_PLY = 256;
+
+    private static final int HASH_MOVE_SCORE = 1000000;
+    private static final int CAPTURE_SCORE = 900000;
+    private static final int PROMOTION_SCORE = 800000;
+    private static final int KILLER_SCORE = 700000;
+    private static final int MAX_HISTORY_SCORE = 600000;
+
+    // A side with no piece or move left loses; WIN_SCORE - ply is a win found at that ply, and
+    // tablebase wins count down from TABLEBASE_WIN. Scores from WIN_BOUND up are decisive.
+    public static int WIN_SCORE = 100000000;
+    public static int TABLEBASE_WIN = 10000000;
+    public static int WIN_BOUND = TABLEBASE_WIN - 1000;
+    private static final int INFINITY = WIN_SCORE + 1;
+
+    private static final int ASPIRATION_WINDOW = 1;
+    private static final int MAX_ASPIRATION_WINDOW = 8;
+
+    private Player player;
+    private TranspositionTable table;
+    private Tablebase tablebase;
+    private Evaluator evaluator;
+    private AtomicBoolean stop;
+    private long startTime, nodeLimit;
+    private volatile long deadline;
+    private boolean mainThread;
+    private int searchDepth, completedDepth;
+    private boolean stopped;
+    private long nodes, leaves, cutoffs, firstMoveCutoffs, chainExpansions, tableProbes, tableHits, tablebaseHits;
+    private long quiescenceNodes, deltaCutoffs, researches, aspirationFails;
+    private SearchStats stats = new SearchStats();
+    private long[][] pv = new long[MAX_PLY][MAX_PLY];
+    private int[] pvLength = new int[MAX_PLY];
+    private long[][] moveBuffer = new long[MAX_PLY][Board.MAX_MOVES];
+    private int[][] scoreBuffer = new int[MAX_PLY][Board.MAX_MOVES];
+    private long[][] killers = new long[MAX_PLY][2];
+    private int[][][] history = new int[2][64][64];
+    // The position hash at each ply, after the positions of the game before the root, and the
+    // turns in a row without a capture or man move that led to it.
+    private long[] positionKeys = new long[Board.NO_PROGRESS_TURNS + MAX_PLY];
+    private int[] reversibleTurns = new int[MAX_PLY];
+    private int rootOffset;
+
+    /**
+     * One search thread. Every thread plays moves in place on its own copy of the board and shares
+     * only the transposition table and the stop flag, so any number of them can search the same
+     * position.
+     */
+    public Search(Player player, TranspositionTable table, AtomicBoolean stop, long timeLimitMillis, long nodeLimit,
+                  boolean mainThread) {
+        this.player = player;
+        this.table = table;
+        this.tablebase = player.getTablebase();
+        this.evaluator = player.getEvaluator();
+        this.stop = stop;
+        this.startTime = System.nanoTime();
+        this.nodeLimit = nodeLimit;
+        this.mainThread = mainThread;
+        startClock(timeLimitMillis);
+    }
+
+    /**
+     * Gives the search the given time from now on; 0 means no limit. It may be called from another
+     * thread while the search runs, which is how a pondering search gets its time once the
+     * opponent plays the expected move.
+     */
+    public void startClock(long timeLimitMillis) {
+        deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1000000 : 0;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Returns the counters of this thread's search, in total and per depth. The search only
+     * bumps plain fields; they are copied into the stats once per iteration.
+     */
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Deepens from startDepth to depthLimit and returns the move, score and principal variation
+     * of the last completed depth; the move is null if no depth was completed. From the second
+     * depth on the root is searched in an aspiration window around the previous score, which is
+     * widened and searched again whenever the score falls outside it.
+     */
+    public SearchResult iterate(Board board, int startDepth, int depthLimit) {
+        BoardState bs = new BoardState(player, board, player);
+        long[] gameKeys = board.getPositionHistory(Board.NO_PROGRESS_TURNS);
+        System.arraycopy(gameKeys, 0, positionKeys, 0, gameKeys.length);
+        rootOffset = gameKeys.length;
+        reversibleTurns[0] = Math.min(board.getReversibleTurns(), Board.NO_PROGRESS_TURNS);
+        List<int[]> completedMove = null, completedLine = new ArrayList<>();
+        int completedScore = 0;
+        for (searchDepth = startDepth; searchDepth <= depthLimit; searchDepth++) {
+            ageHistory();
+            SearchDepthEvent event = new SearchDepthEvent();
+            event.begin();
+            long iterationStart = System.nanoTime();
+            int score = searchRoot(bs, completedMove != null ? completedScore : 0, completedMove != null);
+            stats.recordDepth(searchDepth, getCounters(), System.nanoTime() - iterationStart);
+            commitDepthEvent(event);
+            if (stopped) {
+                break;
+            }
+
+            completedMove = getTurnMoves(bs.getBoard());
+            completedLine = getPrincipalVariation(bs.getBoard());
+            completedDepth = searchDepth;
+            completedScore = score;
+            checkLimits();
+            if (stopped || completedMove == null) {
+                break;
+            }
+        }
+        stats.finish(System.nanoTime() - startTime, completedDepth);
+        return new SearchResult(completedMove, completedScore, completedLine, completedDepth, stats);
+    }
+
+    private int searchRoot(BoardState bs, int previousScore, boolean aspiration) {
+        if (!aspiration || Math.abs(previousScore) >= WIN_BOUND) {
+            return searchTree(0, 0, bs, -INFINITY, INFINITY);
+        }
+        // The windows are counted in men, whatever the evaluation weighs a man.
+        int man = Math.max(1, evaluator.getWeight(Evaluator.MEN)), maxWindow = MAX_ASPIRATION_WINDOW * man;
+        int window = ASPIRATION_WINDOW * man;
+        int alpha = previousScore - window, beta = previousScore + window;
+        while (true) {
+            int score = searchTree(0, 0, bs, alpha, beta);
+            if (stopped || (score > alpha && score < beta)) {
+                return score;
+            }
+            aspirationFails++;
+            window *= 2;
+            if (score <= alpha) {
+                alpha = window > maxWindow ? -INFINITY : Math.max(score - window, -INFINITY);
+            } else {
+                beta = window > maxWindow ? INFINITY : Math.min(score + window, INFINITY);
+            }
+        }
+    }
+
+    private long[] getCounters() {
+        long[] counters = new long[SearchStats.COUNTERS];
+        counters[SearchStats.NODES] = nodes;
+        counters[SearchStats.LEAVES] = leaves;
+        counters[SearchStats.CUTOFFS] = cutoffs;
+        counters[SearchStats.FIRST_MOVE_CUTOFFS] = firstMoveCutoffs;
+        counters[SearchStats.CHAIN_EXPANSIONS] = chainExpansions;
+        counters[SearchStats.TABLE_PROBES] = tableProbes;
+        counters[SearchStats.TABLE_HITS] = tableHits;
+        counters[SearchStats.TABLEBASE_HITS] = tablebaseHits;
+        counters[SearchStats.QUIESCENCE_NODES] = quiescenceNodes;
+        counters[SearchStats.DELTA_CUTOFFS] = deltaCutoffs;
+        counters[SearchStats.RESEARCHES] = researches;
+        counters[SearchStats.ASPIRATION_FAILS] = aspirationFails;
+        return counters;
+    }
+
+    private void commitDepthEvent(SearchDepthEvent event) {
+        if (event.shouldCommit()) {
+            event.depth = searchDepth;
+            event.completed = !stopped;
+            event.nodes = stats.get(searchDepth, SearchStats.NODES);
+            event.leaves = stats.get(searchDepth, SearchStats.LEAVES);
+            event.cutoffs = stats.get(searchDepth, SearchStats.CUTOFFS);
+            event.firstMoveCutoffs = stats.get(searchDepth, SearchStats.FIRST_MOVE_CUTOFFS);
+            event.chainExpansions = stats.get(searchDepth, SearchStats.CHAIN_EXPANSIONS);
+            event.tableHits = stats.get(searchDepth, SearchStats.TABLE_HITS);
+            event.quiescenceNodes = stats.get(searchDepth, SearchStats.QUIESCENCE_NODES);
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the hops of the root player's turn from the start of the principal variation.
+     */
+    private List<int[]> getTurnMoves(Board board) {
+        if (pvLength[0] == 0) {
+            return null;
+        }
+        return board.getTurnMoves(pv[0][0]);
+    }
+
+    private List<int[]> getPrincipalVariation(Board board) {
+        List<int[]> line = new ArrayList<>();
+        Board replay = board.cloneBoard();
+        for (int i = 0; i < pvLength[0]; i++) {
+            line.addAll(replay.getTurnMoves(pv[0][i]));
+            replay.makeTurn(pv[0][i]);
+        }
+        return line;
+    }
+
+    /**
+     * Negamax principal variation search: scores are for the player to move, so a child's score
+     * is negated. Every move is a whole turn, chain jumps included. The first move gets the full
+     * window; the others are tried with a zero window and searched again only if they beat alpha.
+     */
+    private int searchTree(int depth, int ply, BoardState bs, int alpha, int beta) {
+        pvLength[ply] = 0;
+        if (++nodes % NODES_BETWEEN_CHECKS == 0 && (completedDepth > 0 || !mainThread)) {
+            checkLimits();
+        }
+        if (stopped) {
+            return 0;
+        }
+        Board board = bs.getBoard();
+        if (board.countPieces(bs.getCurrentPlayer().getPieceColor()) == 0) {
+            leaves++;
+            return -WIN_SCORE + ply;
+        }
+        positionKeys[rootOffset + ply] = board.getHash();
+        if (ply > 0 && isDraw(ply)) {
+            leaves++;
+            return 0;
+        }
+        if (ply >= MAX_PLY - 1) {
+            leaves++;
+            return bs.evaluate();
+        }
+        if (depth >= searchDepth) {
+            return quiesce(ply, bs, alpha, beta);
+        }
+        if (depth > 0 && tablebase != null) {
+            int result = tablebase.probe(board, bs.getCurrentPlayer().isBlackPlayer());
+            if (result != Tablebase.NO_RESULT) {
+                tablebaseHits++;
+                return tablebaseScore(result, ply);
+            }
+        }
+
+        long key = bs.getHash();
+        long entry = table.probe(key);
+        if (depth > 0) {
+            tableProbes++;
+        }
+        if (depth > 0 && entry != 0 && TranspositionTable.getDepth(entry) >= searchDepth - depth) {
+            int tableScore = fromTable(TranspositionTable.getScore(entry), ply);
+            int bound = TranspositionTable.getBound(entry);
+            if (bound == TranspositionTable.EXACT
+                || (bound == TranspositionTable.LOWER_BOUND && tableScore >= beta)
+                || (bound == TranspositionTable.UPPER_BOUND && tableScore <= alpha)) {
+                tableHits++;
+                return tableScore;
+            }
+        }
+
+        int side = bs.getCurrentPlayer().isBlackPlayer() ? 0 : 1;
+        long hashMove = table.probeMove(key);
+        int count = scoreMoves(bs, ply, side, hashMove);
+        if (count == 0) {
+            leaves++;
+            return -WIN_SCORE + ply;
+        }
+        long[] moves = moveBuffer[ply];
+        int bestScore = -INFINITY;
+        long bestMove = 0;
+        int originalAlpha = alpha;
+
+        for (int i = 0; i < count; i++) {
+            pickMove(ply, i, count);
+            long move = moves[i];
+            reversibleTurns[ply + 1] = board.isReversibleTurn(move) ? reversibleTurns[ply] + 1 : 0;
+            bs.makeTurn(move);
+            if (Board.getTurnHops(move) > 1) {
+                chainExpansions++;
+            }
+            int score;
+            if (i == 0) {
+                score = -searchTree(depth + 1, ply + 1, bs, -beta, -alpha);
+            } else {
+                score = -searchTree(depth + 1, ply + 1, bs, -alpha - 1, -alpha);
+                if (score > alpha && score < beta) {
+                    researches++;
+                    score = -searchTree(depth + 1, ply + 1, bs, -beta, -alpha);
+                }
+            }
+            bs.unmakeMove();
+            if (stopped) {
+                return 0;
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                updatePrincipalVariation(ply, move);
+            }
+            alpha = Math.max(alpha, score);
+            if (alpha >= beta) {
+                cutoffs++;
+                if (i == 0) {
+                    firstMoveCutoffs++;
+                }
+                if (!Board.isCaptureTurn(move)) {
+                    updateQuietMove(board, ply, side, move, searchDepth - depth);
+                }
+                return storeScore(depth, ply, key, TranspositionTable.LOWER_BOUND, bestScore, bestMove);
+            }
+        }
+
+        int bound = bestScore > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND;
+        return storeScore(depth, ply, key, bound, bestScore, bestMove);
+    }
+
+    /**
+     * Returns true if the position at the ply is drawn by the no-progress rule or has come up
+     * before, in the search or in the game, with the same side to move. A single repetition is
+     * enough: the side that steered into it can repeat it again. Only the positions since the
+     * last capture or man move are compared.
+     */
+    private boolean isDraw(int ply) {
+        int reversible = reversibleTurns[ply];
+        if (reversible >= Board.NO_PROGRESS_TURNS) {
+            return true;
+        }
+        int index = rootOffset + ply;
+        long key = positionKeys[index];
+        for (int i = index - 2; i >= index - reversible; i -= 2) {
+            if (positionKeys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Searches only captures below the horizon until the position is quiet, so that exchanges
+     * are scored once they are over. The side to move may stand pat on the evaluation instead
+     * of capturing; a capture is searched as a whole chain. A node is given up when even taking
+     * every opposing piece, plus a man for the positional terms, could not reach the window
+     * (exact for the material evaluation), and a capture is not searched further when its
+     * evaluation still fails low, since the opponent could stand pat on it.
+     */
+    private int quiesce(int ply, BoardState bs, int alpha, int beta) {
+        pvLength[ply] = 0;
+        quiescenceNodes++;
+        if (++nodes % NODES_BETWEEN_CHECKS == 0 && (completedDepth > 0 || !mainThread)) {
+            checkLimits();
+        }
+        if (stopped) {
+            return 0;
+        }
+        Board board = bs.getBoard();
+        Player current = bs.getCurrentPlayer();
+        if (board.countPieces(current.getPieceColor()) == 0) {
+            leaves++;
+            return -WIN_SCORE + ply;
+        }
+        if (ply >= MAX_PLY - 1) {
+            leaves++;
+            return bs.evaluate();
+        }
+
+        leaves++;
+        if (!board.hasMoves(current)) {
+            return -WIN_SCORE + ply;
+        }
+        int standPat = bs.evaluate();
+        if (standPat >= beta) {
+            return standPat;
+        }
+        String opponent = current.isBlackPlayer() ? Piece.WHITE : Piece.BLACK;
+        int maxGain = evaluator.getWeight(Evaluator.MEN) * (board.countMen(opponent) + 1)
+            + evaluator.getWeight(Evaluator.KINGS) * board.countKings(opponent);
+        if (standPat + maxGain <= alpha) {
+            deltaCutoffs++;
+            return standPat;
+        }
+        int bestScore = standPat;
+        alpha = Math.max(alpha, standPat);
+
+        long[] moves = moveBuffer[ply];
+        int count = board.generateCaptureTurns(current.isBlackPlayer(), moves);
+        for (int i = 0; i < count; i++) {
+            long move = moves[i];
+            bs.makeTurn(move);
+            int score;
+            if (bs.getBoard().hasMoves(bs.getCurrentPlayer()) && -bs.evaluate() <= alpha) {
+                deltaCutoffs++;
+                score = -bs.evaluate();
+            } else {
+                score = -quiesce(ply + 1, bs, -beta, -alpha);
+            }
+            bs.unmakeMove();
+            if (stopped) {
+                return 0;
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                updatePrincipalVariation(ply, move);
+            }
+            alpha = Math.max(alpha, score);
+            if (alpha >= beta) {
+                break;
+            }
+        }
+        return bestScore;
+    }
+
+    /**
+     * Fills the move buffer of the ply and scores each move for ordering: the table move first,
+     * then captures, promotions, the two killer moves of the ply and the rest by history.
+     */
+    private int scoreMoves(BoardState bs, int ply, int side, long hashMove) {
+        Board board = bs.getBoard();
+        long[] moves = moveBuffer[ply];
+        int[] scores = scoreBuffer[ply];
+        int count = board.generateTurns(side == 0, moves);
+        for (int i = 0; i < count; i++) {
+            long move = moves[i];
+            int score;
+            if (move == hashMove && hashMove != 0) {
+                score = HASH_MOVE_SCORE;
+            } else if (Board.isCaptureTurn(move)) {
+                score = CAPTURE_SCORE;
+            } else if (board.isPromotionTurn(move)) {
+                score = PROMOTION_SCORE;
+            } else if (move == killers[ply][0]) {
+                score = KILLER_SCORE + 1;
+            } else if (move == killers[ply][1]) {
+                score = KILLER_SCORE;
+            } else {
+                score = history[side][(int) move & 63][board.getTurnTarget(move)];
+            }
+            scores[i] = score;
+        }
+        return count;
+    }
+
+    /**
+     * Swaps the best scored of the remaining moves into place, so a cutoff early in the list
+     * saves sorting the rest.
+     */
+    private void pickMove(int ply, int index, int count) {
+        long[] moves = moveBuffer[ply];
+        int[] scores = scoreBuffer[ply];
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        long move = moves[index];
+        int score = scores[index];
+        moves[index] = moves[best];
+        scores[index] = scores[best];
+        moves[best] = move;
+        scores[best] = score;
+    }
+
+    private void updateQuietMove(Board board, int ply, int side, long move, int depthLeft) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int[] scores = history[side][(int) move & 63];
+        int to = board.getTurnTarget(move);
+        scores[to] = Math.min(scores[to] + depthLeft * depthLeft, MAX_HISTORY_SCORE - 1);
+    }
+
+    private void ageHistory() {
+        for (int[][] sideHistory : history) {
+            for (int[] scores : sideHistory) {
+                for (int i = 0; i < scores.length; i++) {
+                    scores[i] >>= 1;
+                }
+            }
+        }
+    }
+
+    private void updatePrincipalVariation(int ply, long move) {
+        pv[ply][0] = move;
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+        pvLength[ply] = pvLength[ply + 1] + 1;
+    }
+
+    private int storeScore(int depth, int ply, long key, int bound, int score, long move) {
+        if (!stopped) {
+            table.store(key, searchDepth - depth, bound, toTable(score, ply), move);
+        }
+        return score;
+    }
+
+    /**
+     * Win and loss scores count plies from the root; the table keeps them counted from the
+     * stored position instead, so they stay right when the position is reached at another ply.
+     */
+    private static int toTable(int score, int ply) {
+        if (score >= WIN_BOUND) {
+            return score + ply;
+        }
+        return score <= -WIN_BOUND ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score >= WIN_BOUND) {
+            return score - ply;
+        }
+        return score <= -WIN_BOUND ? score + ply : score;
+    }
+
+    /**
+     * Scores a tablebase result for the player to move: wins above any material count, sooner
+     * ones higher, and losses the other way round.
+     */
+    static int tablebaseScore(int result, int ply) {
+        if (result > 0) {
+            return TABLEBASE_WIN - ply - result;
+        } else if (result < 0) {
+            return -(TABLEBASE_WIN - ply + result + 1);
+        }
+        return 0;
+    }
+
+    private void checkLimits() {
+        long deadline = this.deadline;
+        if (stop.get()
+            || (nodeLimit > 0 && nodes >= nodeLimit)
+            || (deadline != 0 && System.nanoTime() - deadline >= 0)) {
+            stopped = true;
+        }
+    }
+}
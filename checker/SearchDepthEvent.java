@@ -0,0 +1,37 @@
+import jdk.jfr.*;
+
+/**
+ * JFR event committed by each search thread for every iteration of its iterative deepening,
+ * with the counters of that iteration alone.
+ */
+@Name("checker.SearchDepth")
+@Label("Search Depth")
+@Category("Checker")
+public class SearchDepthEvent extends Event{
+    @Label("Depth")
+    int depth;
+
+    @Label("Completed")
+    boolean completed;
+
+    @Label("Nodes")
+    long nodes;
+
+    @Label("Leaves")
+    long leaves;
+
+    @Label("Cutoffs")
+    long cutoffs;
+
+    @Label("First-Move Cutoffs")
+    long firstMoveCutoffs;
+
+    @Label("Chain Expansions")
+    long chainExpansions;
+
+    @Label("Table Hits")
+    long tableHits;
+
+    @Label("Quiescence Nodes")
+    long quiescenceNodes;
+}
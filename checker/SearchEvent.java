@@ -0,0 +1,46 @@
+import jdk.jfr.*;
+
+/**
+ * JFR event committed by Player.getBestMove for every search, with the counters of all its
+ * threads. Like all JFR events it costs next to nothing while no recording is running.
+ */
+@Name("checker.Search")
+@Label("Search")
+@Category("Checker")
+public class SearchEvent extends Event{
+    @Label("Color")
+    String color;
+
+    @Label("Threads")
+    int threads;
+
+    @Label("Completed Depth")
+    int completedDepth;
+
+    @Label("Score")
+    int score;
+
+    @Label("Nodes")
+    long nodes;
+
+    @Label("Leaves")
+    long leaves;
+
+    @Label("Cutoffs")
+    long cutoffs;
+
+    @Label("First-Move Cutoffs")
+    long firstMoveCutoffs;
+
+    @Label("Chain Expansions")
+    long chainExpansions;
+
+    @Label("Table Hits")
+    long tableHits;
+
+    @Label("Quiescence Nodes")
+    long quiescenceNodes;
+
+    @Label("Nodes Per Second")
+    double nodesPerSecond;
+}
@@ -0,0 +1,51 @@
+import java.util.*;
+
+public class SearchResult{
+    private List<int[]> move;
+    private int score, depth;
+    private List<int[]> principalVariation;
+    private SearchStats stats;
+
+    /**
+     * The outcome of one search: the hops of the turn to play, its score for the player to move,
+     * the principal variation as hops, starting with the move, and the depth it was searched to.
+     */
+    public SearchResult(List<int[]> move, int score, List<int[]> principalVariation, int depth, SearchStats stats) {
+        this.move = move;
+        this.score = score;
+        this.principalVariation = principalVariation;
+        this.depth = depth;
+        this.stats = stats;
+    }
+
+    /**
+     * Returns the hops of the turn to play, or null if there was none or no depth completed.
+     */
+    public List<int[]> getMove() {
+        return move;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public List<int[]> getPrincipalVariation() {
+        return principalVariation;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns whether the score is a forced win or loss, found by the search or the tablebase,
+     * rather than a material count.
+     */
+    public boolean isDecisive() {
+        return Math.abs(score) >= Search.WIN_BOUND;
+    }
+}
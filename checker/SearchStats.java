@@ -0,0 +1,129 @@
+import java.util.*;
+
+public class SearchStats{
+    public static int NODES = 0;
+    public static int LEAVES = 1;
+    public static int CUTOFFS = 2;
+    public static int FIRST_MOVE_CUTOFFS = 3;
+    public static int CHAIN_EXPANSIONS = 4;
+    public static int TABLE_PROBES = 5;
+    public static int TABLE_HITS = 6;
+    public static int TABLEBASE_HITS = 7;
+    public static int QUIESCENCE_NODES = 8;
+    public static int DELTA_CUTOFFS = 9;
+    public static int RESEARCHES = 10;
+    public static int ASPIRATION_FAILS = 11;
+    public static int PLAYOUTS = 12;
+    public static int COUNTERS = 13;
+
+    private static final String[] NAMES = {"nodes", "leaves", "cutoffs", "first-move cutoffs", "chain expansions",
+        "table probes", "table hits", "tablebase hits", "quiescence nodes", "delta cutoffs",
+        "re-searches", "aspiration fails", "playouts"};
+
+    private long[] totals = new long[COUNTERS];
+    private long[][] depthCounters = new long[Player.MAX_SEARCH_DEPTH + 1][COUNTERS];
+    private long[] depthNanos = new long[Player.MAX_SEARCH_DEPTH + 1];
+    private long nanos;
+    private int completedDepth;
+
+    /**
+     * Adds the counters of one iteration, given as the searching thread's running totals, to
+     * the counts of that depth.
+     */
+    void recordDepth(int depth, long[] runningTotals, long iterationNanos) {
+        for (int counter = 0; counter < COUNTERS; counter++) {
+            depthCounters[depth][counter] += runningTotals[counter] - totals[counter];
+            totals[counter] = runningTotals[counter];
+        }
+        depthNanos[depth] += iterationNanos;
+    }
+
+    void finish(long nanos, int completedDepth) {
+        this.nanos = nanos;
+        this.completedDepth = completedDepth;
+    }
+
+    /**
+     * Adds the counts of another thread's search of the same position.
+     */
+    void add(SearchStats other) {
+        for (int counter = 0; counter < COUNTERS; counter++) {
+            totals[counter] += other.totals[counter];
+        }
+        for (int depth = 0; depth < depthCounters.length; depth++) {
+            for (int counter = 0; counter < COUNTERS; counter++) {
+                depthCounters[depth][counter] += other.depthCounters[depth][counter];
+            }
+            depthNanos[depth] += other.depthNanos[depth];
+        }
+    }
+
+    public long get(int counter) {
+        return totals[counter];
+    }
+
+    public long get(int depth, int counter) {
+        return depthCounters[depth][counter];
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getDepthNanos(int depth) {
+        return depthNanos[depth];
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public double getNodesPerSecond() {
+        return nanos == 0 ? 0 : totals[NODES] * 1e9 / nanos;
+    }
+
+    public double getPlayoutsPerSecond() {
+        return nanos == 0 ? 0 : totals[PLAYOUTS] * 1e9 / nanos;
+    }
+
+    public double getFirstMoveCutoffRate() {
+        return totals[CUTOFFS] == 0 ? 0 : (double) totals[FIRST_MOVE_CUTOFFS] / totals[CUTOFFS];
+    }
+
+    public double getTableHitRate() {
+        return totals[TABLE_PROBES] == 0 ? 0 : (double) totals[TABLE_HITS] / totals[TABLE_PROBES];
+    }
+
+    /**
+     * Returns the effective branching factor at a depth: how many times more nodes its iteration
+     * searched than the one before.
+     */
+    public double getBranchingFactor(int depth) {
+        if (depth < 2 || depthCounters[depth - 1][NODES] == 0) {
+            return 0;
+        }
+        return (double) depthCounters[depth][NODES] / depthCounters[depth - 1][NODES];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format("depth %d, %.1f ms, %.0f nodes/s, first-move cutoffs %.1f%%, table hits %.1f%%%n",
+            completedDepth, nanos / 1e6, getNodesPerSecond(), 100 * getFirstMoveCutoffRate(), 100 * getTableHitRate()));
+        text.append("depth");
+        for (String name : NAMES) {
+            text.append(", ").append(name);
+        }
+        text.append(", ms, branching factor\n");
+        for (int depth = 1; depth < depthCounters.length; depth++) {
+            if (depthCounters[depth][NODES] == 0) {
+                continue;
+            }
+            text.append(depth);
+            for (int counter = 0; counter < COUNTERS; counter++) {
+                text.append(", ").append(depthCounters[depth][counter]);
+            }
+            text.append(String.format(", %.2f, %.2f%n", depthNanos[depth] / 1e6, getBranchingFactor(depth)));
+        }
+        return text.toString();
+    }
+}
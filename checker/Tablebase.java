@@ -0,0 +1,440 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class Tablebase{
+    public static int DEFAULT_MAX_PIECES = 4;
+    public static String DEFAULT_FILE = "checker.tb";
+
+    // Probe results: 0 is a draw, d > 0 a win for the side to move in d turns and -(d + 1) a loss
+    // in d turns. Distances longer than MAX_DISTANCE are stored as MAX_DISTANCE, so such a win or
+    // loss keeps its sign but not its length.
+    public static int NO_RESULT = Integer.MIN_VALUE;
+    public static int MAX_DISTANCE = 127;
+
+    private static final int MAGIC = 0x43544231;
+    private static final int SQUARES = 32;
+    private static final int[] DARK_SQUARES = new int[SQUARES];
+    private static final int[] DARK_INDEX = new int[64];
+    private static final long[][] BINOMIAL = new long[SQUARES + 1][SQUARES + 1];
+    private static final Player BLACK_PLAYER = new Player(Piece.BLACK);
+    private static final Player WHITE_PLAYER = new Player(Piece.WHITE);
+
+    static {
+        int index = 0;
+        for (int square = 0; square < 64; square++) {
+            DARK_INDEX[square] = -1;
+            if ((square / 8 + square % 8) % 2 != 0) {
+                DARK_SQUARES[index] = square;
+                DARK_INDEX[square] = index++;
+            }
+        }
+        for (int n = 0; n <= SQUARES; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+            }
+        }
+    }
+
+    private int maxPieces;
+    private ByteBuffer data;
+    private long[] offsets = new long[1 << 16];
+
+    private Tablebase(int maxPieces, ByteBuffer data) {
+        this.maxPieces = maxPieces;
+        this.data = data;
+        Arrays.fill(offsets, -1);
+    }
+
+    /**
+     * Maps a tablebase file written by main. The tables stay in the file and are paged in by the
+     * operating system as positions are probed.
+     */
+    public static Tablebase load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not a tablebase file: " + path);
+            }
+            Tablebase tablebase = new Tablebase(data.getInt(4), data);
+            int tables = data.getInt(8);
+            for (int i = 0; i < tables; i++) {
+                tablebase.offsets[data.getInt(12 + i * 12)] = data.getLong(16 + i * 12);
+            }
+            return tablebase;
+        }
+    }
+
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * Returns the result of the position for the side to move, or NO_RESULT if the position is
+     * not on the standard board, in the middle of a jump chain or has more pieces than the tables
+     * hold.
+     */
+    public int probe(Board board, boolean blackToMove) {
+        long black = board.getBlackPieces(), white = board.getWhitePieces(), kings = board.getKings();
+        if (board.getGeometry() != Geometry.STANDARD || board.getChainSquare() >= 0
+            || Long.bitCount(black | white) > maxPieces) {
+            return NO_RESULT;
+        }
+        if ((blackToMove ? black : white) == 0) {
+            return -1;
+        }
+        if ((blackToMove ? white : black) == 0) {
+            return NO_RESULT;
+        }
+        long offset = offsets[signature(black, white, kings)];
+        if (offset < 0) {
+            return NO_RESULT;
+        }
+        return data.get((int) (offset + index(black, white, kings, blackToMove)));
+    }
+
+    /**
+     * Returns the hops of the turn that keeps the best result: the fastest win, a draw, or the
+     * longest loss. Returns null if the position is not in the tables.
+     */
+    public List<int[]> getBestTurn(Board board, boolean blackToMove) {
+        if (probe(board, blackToMove) == NO_RESULT) {
+            return null;
+        }
+        Board copy = board.cloneBoard();
+        List<int[]> hops = new ArrayList<>();
+        List<int[]> best = new ArrayList<>();
+        findBestTurn(copy, blackToMove, hops, best, new int[]{Integer.MIN_VALUE});
+        return best.isEmpty() ? null : best;
+    }
+
+    private void findBestTurn(Board board, boolean blackToMove, List<int[]> hops, List<int[]> best, int[] bestRank) {
+        for (int[] move : board.getAllMoves(blackToMove ? BLACK_PLAYER : WHITE_PLAYER)) {
+            board.makeMove(Board.encodeMove(board.square(move[0], move[1]), board.square(move[2], move[3])));
+            hops.add(move);
+            if (board.getChainSquare() >= 0) {
+                findBestTurn(board, blackToMove, hops, best, bestRank);
+            } else {
+                int rank = rankForMover(probe(board, !blackToMove));
+                if (rank > bestRank[0]) {
+                    bestRank[0] = rank;
+                    best.clear();
+                    best.addAll(hops);
+                }
+            }
+            hops.remove(hops.size() - 1);
+            board.unmakeMove();
+        }
+    }
+
+    /**
+     * Orders the results of the opponent after a turn from the mover's point of view.
+     */
+    private static int rankForMover(int opponentResult) {
+        if (opponentResult < 0) {
+            return 1000 + opponentResult;
+        }
+        return opponentResult == 0 ? 0 : opponentResult - 1000;
+    }
+
+    /**
+     * Solves every material signature of up to maxPieces pieces, fewest pieces and fewest men
+     * first, so that the positions a capture or a promotion leads to are always already solved.
+     */
+    public static Map<Integer, byte[]> generate(int maxPieces, PrintStream log) {
+        Map<Integer, byte[]> tables = new LinkedHashMap<>();
+        for (int pieces = 2; pieces <= maxPieces; pieces++) {
+            for (int men = 0; men <= pieces; men++) {
+                for (int blackPieces = 1; blackPieces < pieces; blackPieces++) {
+                    int whitePieces = pieces - blackPieces;
+                    for (int blackMen = Math.max(0, men - whitePieces); blackMen <= Math.min(men, blackPieces); blackMen++) {
+                        int sig = signature(blackMen, men - blackMen, blackPieces - blackMen, whitePieces - men + blackMen);
+                        long start = System.nanoTime();
+                        byte[] table = solve(sig, tables);
+                        tables.put(sig, table);
+                        if (log != null) {
+                            log.printf("%-12s %,12d positions %6d ms%n", describe(sig), table.length,
+                                (System.nanoTime() - start) / 1000000);
+                        }
+                    }
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Retrograde analysis of one signature. Turns that capture or promote leave the signature and
+     * are looked up in the solved tables; the rest stay inside it, and positions are resolved
+     * level by level: a win in d turns needs a move to a loss in d - 1, a loss in d turns needs
+     * every move to lead to a win, the longest of them in d - 1. The levels go on until one
+     * resolves nothing and no exit can resolve anything later, however long that takes; what is
+     * never resolved is a draw. The distances are only clamped to MAX_DISTANCE when stored.
+     */
+    private static byte[] solve(int sig, Map<Integer, byte[]> tables) {
+        int size = (int) size(sig);
+        int[] values = new int[size];
+        boolean[] resolved = new boolean[size];
+        int[] childStart = new int[size + 1];
+        int[] children = new int[size];
+        int[] exitWin = new int[size];
+        int[] exitLoss = new int[size];
+        boolean[] exitDraw = new boolean[size];
+        int childCount = 0, maxExit = 0;
+        List<Integer> pending = new ArrayList<>();
+        long[] masks = new long[3];
+        int[] turnChildren = new int[256];
+        int[] turnExits = new int[2];
+
+        for (int index = 0; index < size; index++) {
+            childStart[index] = childCount;
+            if (!unindex(sig, index, masks)) {
+                resolved[index] = true;
+                continue;
+            }
+            boolean blackToMove = (index & 1) == 0;
+            Board board = Board.fromMasks(masks[0], masks[1], masks[2]);
+            int[] exit = {Integer.MAX_VALUE, -1, 0, 0};
+            int count = collectTurns(board, blackToMove, sig, tables, turnChildren, 0, exit);
+            if (childCount + count > children.length) {
+                children = Arrays.copyOf(children, Math.max(children.length * 2, childCount + count));
+            }
+            System.arraycopy(turnChildren, 0, children, childCount, count);
+            childCount += count;
+            exitWin[index] = exit[0] == Integer.MAX_VALUE ? 0 : exit[0];
+            exitLoss[index] = exit[1] + 1;
+            exitDraw[index] = exit[2] != 0;
+            maxExit = Math.max(maxExit, Math.max(exitWin[index], exitLoss[index]));
+
+            if (count == 0 && exit[3] == 0) {
+                values[index] = -1;
+                resolved[index] = true;
+            } else {
+                pending.add(index);
+            }
+        }
+        childStart[size] = childCount;
+
+        for (int distance = 1; !pending.isEmpty(); distance++) {
+            boolean changed = false;
+            List<Integer> next = new ArrayList<>();
+            for (int index : pending) {
+                boolean win = exitWin[index] == distance;
+                boolean allWins = !exitDraw[index] && exitWin[index] == 0;
+                int longestWin = exitLoss[index] - 1;
+                for (int i = childStart[index]; i < childStart[index + 1] && !win; i++) {
+                    int child = children[i];
+                    if (!resolved[child]) {
+                        allWins = false;
+                    } else if (values[child] < 0) {
+                        allWins = false;
+                        win = -values[child] - 1 == distance - 1;
+                    } else if (values[child] > 0) {
+                        longestWin = Math.max(longestWin, values[child]);
+                    } else {
+                        allWins = false;
+                    }
+                }
+                if (win) {
+                    values[index] = distance;
+                } else if (allWins && longestWin + 1 == distance) {
+                    values[index] = -(distance + 1);
+                } else {
+                    next.add(index);
+                    continue;
+                }
+                resolved[index] = true;
+                changed = true;
+            }
+            pending = next;
+            if (!changed && distance > maxExit + 1) {
+                break;
+            }
+        }
+
+        byte[] table = new byte[size];
+        for (int index = 0; index < size; index++) {
+            int value = values[index];
+            table[index] = (byte) (value > 0 ? Math.min(value, MAX_DISTANCE) : value < 0
+                ? -Math.min(-value - 1, MAX_DISTANCE) - 1 : 0);
+        }
+        return table;
+    }
+
+    /**
+     * Plays out every turn of the position, following jump chains. Turns that stay in the
+     * signature add the child's index; the others update exit: the shortest win, the longest
+     * loss, whether a draw is reachable and whether there was any such turn at all.
+     */
+    private static int collectTurns(Board board, boolean blackToMove, int sig, Map<Integer, byte[]> tables,
+                                    int[] turnChildren, int count, int[] exit) {
+        for (int[] move : board.getAllMoves(blackToMove ? BLACK_PLAYER : WHITE_PLAYER)) {
+            board.makeMove(Board.encodeMove(board.square(move[0], move[1]), board.square(move[2], move[3])));
+            if (board.getChainSquare() >= 0) {
+                count = collectTurns(board, blackToMove, sig, tables, turnChildren, count, exit);
+            } else {
+                long black = board.getBlackPieces(), white = board.getWhitePieces(), kings = board.getKings();
+                int childSig = signature(black, white, kings);
+                if (childSig == sig) {
+                    turnChildren[count++] = (int) index(black, white, kings, !blackToMove);
+                } else {
+                    exit[3] = 1;
+                    int result = (blackToMove ? white : black) == 0
+                        ? -1 : tables.get(childSig)[(int) index(black, white, kings, !blackToMove)];
+                    if (result < 0) {
+                        exit[0] = Math.min(exit[0], -result);
+                    } else if (result > 0) {
+                        exit[1] = Math.max(exit[1], result);
+                    } else {
+                        exit[2] = 1;
+                    }
+                }
+            }
+            board.unmakeMove();
+        }
+        return count;
+    }
+
+    static int signature(int blackMen, int whiteMen, int blackKings, int whiteKings) {
+        return blackMen | whiteMen << 4 | blackKings << 8 | whiteKings << 12;
+    }
+
+    private static int signature(long black, long white, long kings) {
+        return signature(Long.bitCount(black & ~kings), Long.bitCount(white & ~kings),
+            Long.bitCount(black & kings), Long.bitCount(white & kings));
+    }
+
+    private static String describe(int sig) {
+        return "b" + (sig & 15) + "B" + (sig >> 8 & 15) + "-w" + (sig >> 4 & 15) + "W" + (sig >> 12 & 15);
+    }
+
+    static long size(int sig) {
+        long size = 2;
+        int free = SQUARES;
+        for (int group = 0; group < 4; group++) {
+            int count = sig >> 4 * group & 15;
+            size *= BINOMIAL[free][count];
+            free -= count;
+        }
+        return size;
+    }
+
+    /**
+     * Perfect index of a position within its signature: black men, white men, black kings and
+     * white kings are each ranked as a combination of the dark squares the earlier groups left
+     * free, and the side to move is the lowest digit.
+     */
+    static long index(long black, long white, long kings, boolean blackToMove) {
+        long[] groups = {black & ~kings, white & ~kings, black & kings, white & kings};
+        long used = 0, index = 0;
+        for (long group : groups) {
+            int free = SQUARES - Long.bitCount(used);
+            long rank = 0;
+            int k = 1;
+            for (long squares = group; squares != 0; squares &= squares - 1) {
+                int dark = DARK_INDEX[Long.numberOfTrailingZeros(squares)];
+                rank += BINOMIAL[dark - Long.bitCount(used & ((1L << dark) - 1))][k++];
+            }
+            index = index * BINOMIAL[free][Long.bitCount(group)] + rank;
+            for (long squares = group; squares != 0; squares &= squares - 1) {
+                used |= 1L << DARK_INDEX[Long.numberOfTrailingZeros(squares)];
+            }
+        }
+        return index * 2 + (blackToMove ? 0 : 1);
+    }
+
+    /**
+     * Fills masks with black, white and kings for an index, and returns false if the index is a
+     * placement that cannot occur: a man standing on the row where it would have been crowned.
+     */
+    private static boolean unindex(int sig, long index, long[] masks) {
+        int[] counts = new int[4], frees = new int[4];
+        long[] ranks = new long[4];
+        int free = SQUARES;
+        for (int group = 0; group < 4; group++) {
+            counts[group] = sig >> 4 * group & 15;
+            frees[group] = free;
+            free -= counts[group];
+        }
+        index >>= 1;
+        for (int group = 3; group >= 0; group--) {
+            long combinations = BINOMIAL[frees[group]][counts[group]];
+            ranks[group] = index % combinations;
+            index /= combinations;
+        }
+
+        long used = 0;
+        long[] boards = new long[4];
+        for (int group = 0; group < 4; group++) {
+            long rank = ranks[group];
+            long placed = 0;
+            for (int k = counts[group]; k > 0; k--) {
+                int position = k - 1;
+                while (position + 1 < SQUARES && BINOMIAL[position + 1][k] <= rank) {
+                    position++;
+                }
+                rank -= BINOMIAL[position][k];
+                int dark = -1;
+                for (int skipped = -1; skipped < position; ) {
+                    dark++;
+                    if ((used & 1L << dark) == 0) {
+                        skipped++;
+                    }
+                }
+                placed |= 1L << dark;
+                boards[group] |= 1L << DARK_SQUARES[dark];
+            }
+            used |= placed;
+        }
+        masks[0] = boards[0] | boards[2];
+        masks[1] = boards[1] | boards[3];
+        masks[2] = boards[2] | boards[3];
+        return (boards[0] & 0xFFL << 56) == 0 && (boards[1] & 0xFFL) == 0;
+    }
+
+    /**
+     * Writes the tables to one file: a header, a directory of signatures and offsets, then one
+     * byte per position of each table.
+     */
+    public static void write(Map<Integer, byte[]> tables, int maxPieces, String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(maxPieces);
+            out.writeInt(tables.size());
+            long offset = 12 + tables.size() * 12L;
+            for (Map.Entry<Integer, byte[]> table : tables.entrySet()) {
+                out.writeInt(table.getKey());
+                out.writeLong(offset);
+                offset += table.getValue().length;
+            }
+            for (byte[] table : tables.values()) {
+                out.write(table);
+            }
+        }
+    }
+
+    /**
+     * Generates the tables: Tablebase [pieces] [file]
+     */
+    public static void main(String[] args) throws IOException {
+        int maxPieces = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_PIECES;
+        String path = args.length > 1 ? args[1] : DEFAULT_FILE;
+        long start = System.nanoTime();
+        Map<Integer, byte[]> tables = generate(maxPieces, System.out);
+        write(tables, maxPieces, path);
+
+        long positions = 0;
+        int[] results = new int[3];
+        for (byte[] table : tables.values()) {
+            positions += table.length;
+            for (byte value : table) {
+                results[value > 0 ? 0 : value < 0 ? 2 : 1]++;
+            }
+        }
+        System.out.printf("%d tables, %,d positions (%,d wins, %,d draws or unused, %,d losses) in %d ms -> %s%n",
+            tables.size(), positions, results[0], results[1], results[2], (System.nanoTime() - start) / 1000000, path);
+    }
+}
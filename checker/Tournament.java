@@ -0,0 +1,317 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Tournament{
+    public static int DEFAULT_GAMES = 1000;
+    public static int DEFAULT_MAX_TURNS = 200;
+    public static int DEFAULT_RANDOM_TURNS = 4;
+    public static int DEFAULT_TABLE_SIZE_MB = 4;
+
+    // Per-side engine settings, parsed from "depth=6,time=0,nodes=0,hash=4,threads=1,eval=file,
+    // engine=alphabeta" (or engine=mcts, or mcts-root for root parallelism).
+    private static class Engine{
+        String name;
+        int depth, tableSizeMB = DEFAULT_TABLE_SIZE_MB, threads = 1, algorithm = Player.ALPHA_BETA;
+        boolean rootParallel;
+        long timeLimitMillis, nodeLimit;
+        Evaluator evaluator = Evaluator.MATERIAL;
+
+        Engine(String name, String settings) throws IOException {
+            this.name = name;
+            for (String setting : settings.split(",")) {
+                if (setting.isEmpty()) {
+                    continue;
+                }
+                String[] pair = setting.split("=");
+                if (pair[0].equals("eval")) {
+                    evaluator = Evaluator.load(pair[1]);
+                    continue;
+                }
+                if (pair[0].equals("engine")) {
+                    algorithm = pair[1].startsWith("mcts") ? Player.MONTE_CARLO : Player.ALPHA_BETA;
+                    rootParallel = pair[1].equals("mcts-root");
+                    continue;
+                }
+                long value = Long.parseLong(pair[1]);
+                switch (pair[0]) {
+                    case "depth":
+                        depth = (int) value;
+                        break;
+                    case "time":
+                        timeLimitMillis = value;
+                        break;
+                    case "nodes":
+                        nodeLimit = value;
+                        break;
+                    case "hash":
+                        tableSizeMB = (int) value;
+                        break;
+                    case "threads":
+                        threads = (int) value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown engine setting: " + pair[0]);
+                }
+            }
+        }
+
+        Player createPlayer(String color) {
+            Player player = new Player(color);
+            player.setTableSize(tableSizeMB);
+            if (depth > 0) {
+                player.setMaxDepth(depth);
+            }
+            player.setTimeLimit(timeLimitMillis);
+            player.setNodeLimit(nodeLimit);
+            player.setEvaluator(evaluator);
+            player.setThreads(threads);
+            player.setSearchAlgorithm(algorithm);
+            player.setRootParallel(rootParallel);
+            return player;
+        }
+    }
+
+    // What one game adds to the totals, indexed by engine: 0 for the first, 1 for the second.
+    private static class GameResult{
+        double firstScore;
+        long[] nodes = new long[2], nanos = new long[2], playouts = new long[2];
+        long[][] moveNanos = new long[2][];
+    }
+
+    private Engine first, second;
+    private int maxTurns = DEFAULT_MAX_TURNS, randomTurns = DEFAULT_RANDOM_TURNS;
+    private Geometry geometry = Geometry.STANDARD;
+    private GameRecordWriter recorder;
+
+    public Tournament(String firstSettings, String secondSettings) throws IOException {
+        this.first = new Engine("first", firstSettings);
+        this.second = new Engine("second", secondSettings);
+    }
+
+    /**
+     * Plays the games on a fixed pool of threads, one game per task. Games come in pairs that
+     * start from the same random opening with the colors swapped, and a game still running
+     * after maxTurns turns is a draw.
+     */
+    public void run(int games, int threads) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<GameResult>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int game = 0; game < games; game++) {
+                long seed = game / 2;
+                boolean firstIsBlack = game % 2 == 0;
+                results.add(pool.submit(() -> playGame(seed, firstIsBlack)));
+            }
+
+            int wins = 0, draws = 0, losses = 0;
+            double scoreSum = 0, scoreSquares = 0;
+            long[] nodes = new long[2], nanos = new long[2], playouts = new long[2];
+            long[][] moveTimes = new long[2][];
+            List<GameResult> finished = new ArrayList<>();
+            for (Future<GameResult> future : results) {
+                GameResult result = future.get();
+                finished.add(result);
+                if (result.firstScore == 1) {
+                    wins++;
+                } else if (result.firstScore == 0) {
+                    losses++;
+                } else {
+                    draws++;
+                }
+                scoreSum += result.firstScore;
+                scoreSquares += result.firstScore * result.firstScore;
+                for (int engine = 0; engine < 2; engine++) {
+                    nodes[engine] += result.nodes[engine];
+                    nanos[engine] += result.nanos[engine];
+                    playouts[engine] += result.playouts[engine];
+                }
+            }
+            for (int engine = 0; engine < 2; engine++) {
+                moveTimes[engine] = collectMoveTimes(finished, engine);
+            }
+
+            double score = scoreSum / games;
+            double deviation = Math.sqrt(Math.max(0, scoreSquares / games - score * score) / games);
+            System.out.printf("%d games in %.1f s: +%d =%d -%d, score %.1f%%%n", games,
+                (System.nanoTime() - start) / 1e9, wins, draws, losses, 100 * score);
+            System.out.printf("Elo %+.1f (95%% %+.1f .. %+.1f)%n", elo(score),
+                elo(score - 1.96 * deviation), elo(score + 1.96 * deviation));
+            Engine[] engines = {first, second};
+            for (int engine = 0; engine < 2; engine++) {
+                long[] times = moveTimes[engine];
+                System.out.printf("%-6s %,12.0f nodes/s  move ms p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+                    engines[engine].name, nanos[engine] == 0 ? 0 : nodes[engine] * 1e9 / nanos[engine],
+                    percentile(times, 0.5), percentile(times, 0.9), percentile(times, 0.99), percentile(times, 1));
+                if (playouts[engine] > 0) {
+                    System.out.printf("%-6s %,12.0f playouts/s%n", engines[engine].name, playouts[engine] * 1e9 / nanos[engine]);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private GameResult playGame(long seed, boolean firstIsBlack) throws IOException {
+        Engine black = firstIsBlack ? first : second, white = firstIsBlack ? second : first;
+        Player blackPlayer = black.createPlayer(Piece.BLACK), whitePlayer = white.createPlayer(Piece.WHITE);
+        GameResult result = new GameResult();
+        long[][] moveNanos = {new long[maxTurns], new long[maxTurns]};
+        int[] moves = new int[2];
+        Random random = new Random(seed);
+        Board board = new Board(geometry);
+        Player current = blackPlayer;
+        result.firstScore = 0.5;
+        long[] turns = new long[maxTurns];
+        int played = 0, outcome = GameRecordWriter.DRAW;
+
+        try {
+            for (int turn = 0; turn < maxTurns; turn++) {
+                if (board.countPieces(current.getPieceColor()) == 0 || !board.hasMoves(current)) {
+                    boolean firstLost = (current == blackPlayer) == firstIsBlack;
+                    result.firstScore = firstLost ? 0 : 1;
+                    outcome = current == blackPlayer ? GameRecordWriter.WHITE_WINS : GameRecordWriter.BLACK_WINS;
+                    break;
+                }
+                if (board.isDraw()) {
+                    break;
+                }
+
+                List<int[]> hops;
+                if (turn < randomTurns) {
+                    hops = getRandomTurn(board, current, random);
+                } else {
+                    int engine = (current == blackPlayer) == firstIsBlack ? 0 : 1;
+                    long start = System.nanoTime();
+                    hops = current.getBestMove(board);
+                    long elapsed = System.nanoTime() - start;
+                    result.nodes[engine] += current.getNodes();
+                    result.nanos[engine] += elapsed;
+                    result.playouts[engine] += current.getPlayouts();
+                    moveNanos[engine][moves[engine]++] = elapsed;
+                }
+                if (recorder != null) {
+                    turns[played++] = board.findTurn(hops, current);
+                }
+                for (int[] hop : hops) {
+                    if (board.move(hop[0], hop[1], hop[2], hop[3], current) == Board.MOVE_ILLEGAL) {
+                        throw new IllegalStateException("Illegal move " + Arrays.toString(hop));
+                    }
+                }
+                current = current == blackPlayer ? whitePlayer : blackPlayer;
+            }
+        } finally {
+            blackPlayer.close();
+            whitePlayer.close();
+        }
+        for (int engine = 0; engine < 2; engine++) {
+            result.moveNanos[engine] = Arrays.copyOf(moveNanos[engine], moves[engine]);
+        }
+        if (recorder != null) {
+            recorder.write(turns, played, outcome);
+        }
+        return result;
+    }
+
+    private static List<int[]> getRandomTurn(Board board, Player player, Random random) {
+        Board replay = board.cloneBoard();
+        List<int[]> hops = new ArrayList<>();
+        do {
+            List<int[]> moves = replay.getAllMoves(player);
+            int[] hop = moves.get(random.nextInt(moves.size()));
+            hops.add(hop);
+            replay.move(hop[0], hop[1], hop[2], hop[3], player);
+        } while (replay.getChainSquare() >= 0);
+        return hops;
+    }
+
+    private static long[] collectMoveTimes(List<GameResult> results, int engine) {
+        int count = 0;
+        for (GameResult result : results) {
+            count += result.moveNanos[engine].length;
+        }
+        long[] times = new long[count];
+        count = 0;
+        for (GameResult result : results) {
+            System.arraycopy(result.moveNanos[engine], 0, times, count, result.moveNanos[engine].length);
+            count += result.moveNanos[engine].length;
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    /**
+     * Elo difference of the first engine for a score between 0 and 1.
+     */
+    private static double elo(double score) {
+        score = Math.max(1e-6, Math.min(score, 1 - 1e-6));
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    /**
+     * Usage: java Tournament [-games n] [-threads n] [-turns n] [-random n] [-board size] [-record file]
+     * [-first settings] [-second settings] where size is a board like 10x10, the games are appended
+     * to the record file if one is given, and settings is a list like depth=6,time=0,nodes=0,hash=4
+     * with eval=file for weights written by Tuner.
+     */
+    public static void main(String[] args) throws Exception {
+        int games = DEFAULT_GAMES, threads = Runtime.getRuntime().availableProcessors();
+        String firstSettings = "", secondSettings = "";
+        int maxTurns = DEFAULT_MAX_TURNS, randomTurns = DEFAULT_RANDOM_TURNS;
+        Geometry geometry = Geometry.STANDARD;
+        String recordPath = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-games":
+                    games = Integer.parseInt(args[++i]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-turns":
+                    maxTurns = Integer.parseInt(args[++i]);
+                    break;
+                case "-random":
+                    randomTurns = Integer.parseInt(args[++i]);
+                    break;
+                case "-board":
+                    geometry = Geometry.parse(args[++i]);
+                    break;
+                case "-record":
+                    recordPath = args[++i];
+                    break;
+                case "-first":
+                    firstSettings = args[++i];
+                    break;
+                case "-second":
+                    secondSettings = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        Tournament tournament = new Tournament(firstSettings, secondSettings);
+        tournament.maxTurns = maxTurns;
+        tournament.randomTurns = randomTurns;
+        tournament.geometry = geometry;
+        if (recordPath != null) {
+            tournament.recorder = GameRecordWriter.open(recordPath, geometry);
+        }
+        try {
+            tournament.run(games, threads);
+        } finally {
+            if (tournament.recorder != null) {
+                tournament.recorder.close();
+            }
+        }
+    }
+}
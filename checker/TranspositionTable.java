@@ -0,0 +1,84 @@
+import java.util.*;
+
+public class TranspositionTable{
+    public static int EXACT = 1;
+    public static int LOWER_BOUND = 2;
+    public static int UPPER_BOUND = 3;
+
+    private static final int ENTRY_BYTES = 16;
+
+    // Each slot is two words. The entry: score (32 bits) | depth (8) | bound (2) | age (6) | the
+    // top 16 bits of the key. The move word: the whole turn, which can take all 64 bits, xor the
+    // key. A bound is never zero, so an empty slot always reads as a miss. Search threads share
+    // the table without locks: an entry left by another position, or torn by two writers, fails
+    // its key check and reads as a miss, and a move word left by another position decodes to a
+    // turn no position has, which the search never finds among its own. The low bits of the key
+    // pick the slot.
+    private long[] entries;
+    private long[] moves;
+    private int mask;
+    private int age;
+
+    public TranspositionTable(int sizeInMB) {
+        long slots = Math.max(1L, (long) sizeInMB * 1024 * 1024 / ENTRY_BYTES);
+        int size = Integer.highestOneBit((int) Math.min(slots, 1 << 30));
+        entries = new long[size];
+        moves = new long[size];
+        mask = size - 1;
+    }
+
+    public void newSearch() {
+        age = (age + 1) & 63;
+    }
+
+    public void clear() {
+        Arrays.fill(entries, 0);
+        Arrays.fill(moves, 0);
+    }
+
+    /**
+     * Returns the packed entry stored for the key, or 0 on a miss.
+     */
+    public long probe(long key) {
+        long entry = entries[(int) key & mask];
+        return entry >>> 48 == key >>> 48 ? entry : 0;
+    }
+
+    /**
+     * Returns the best turn stored for the key, or 0 if there is none.
+     */
+    public long probeMove(long key) {
+        int index = (int) key & mask;
+        return entries[index] >>> 48 == key >>> 48 ? moves[index] ^ key : 0;
+    }
+
+    public void store(long key, int depth, int bound, int score, long move) {
+        int index = (int) key & mask;
+        long old = entries[index];
+        boolean sameKey = old >>> 48 == key >>> 48;
+        if (old != 0 && !sameKey && getAge(old) == age && getDepth(old) > depth) {
+            return;
+        }
+        entries[index] = (score & 0xFFFFFFFFL) | ((long) (depth & 0xFF) << 32) | ((long) bound << 40)
+            | ((long) age << 42) | (key >>> 48 << 48);
+        if (move != 0 || !sameKey) {
+            moves[index] = move ^ key;
+        }
+    }
+
+    public static int getScore(long entry) {
+        return (int) entry;
+    }
+
+    public static int getDepth(long entry) {
+        return (int) (entry >>> 32) & 0xFF;
+    }
+
+    public static int getBound(long entry) {
+        return (int) (entry >>> 40) & 3;
+    }
+
+    private static int getAge(long entry) {
+        return (int) (entry >>> 42) & 63;
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fits the Evaluator weights to the results of recorded games (Texel tuning). Every quiet
+ * position of the games, one without a capture for the side to move, is labelled with the
+ * result of its game, and the weights are moved to minimize the mean squared difference between
+ * the labels and sigmoid(k * evaluation), k being fitted to the starting weights first so that
+ * the weights keep their scale.
+ *
+ * The positions are kept as one flat short array of features, FEATURES per position, with the
+ * labels in a byte array next to it; the error and its gradient are summed over them in
+ * parallel by a fork-join pool, each task running a plain loop over its range that allocates
+ * nothing.
+ */
+public class Tuner{
+    public static int DEFAULT_ITERATIONS = 1000;
+    public static int DEFAULT_SKIP_TURNS = 8;
+    public static double DEFAULT_LEARNING_RATE = 1;
+    public static String DEFAULT_START = "men=100,kings=200";
+    public static String DEFAULT_FILE = "checker.eval";
+    private static final int SPLIT_POSITIONS = 1 << 15;
+
+    private short[] features = new short[(1 << 16) * Evaluator.FEATURES];
+    // Per position: 0 if white won its game, 1 for a draw, 2 if black won.
+    private byte[] results = new byte[1 << 16];
+    private int count;
+    private ForkJoinPool pool;
+
+    public Tuner(int threads) {
+        pool = new ForkJoinPool(threads);
+    }
+
+    public int getPositions() {
+        return count;
+    }
+
+    /**
+     * Adds the quiet positions of every game in a GameRecordWriter file, leaving out the first
+     * skipTurns turns of each game, which mostly come from the random openings.
+     */
+    public void addGames(String path, int skipTurns) throws IOException {
+        int[] captures = new int[Board.MAX_MOVES];
+        GameRecordReader.open(path).replay(new GameRecordReader.Listener() {
+            int gameStart = count, turns;
+
+            @Override
+            public void turnPlayed(Board board, long turn, boolean black) {
+                if (++turns <= skipTurns || board.generateCaptures(!black, captures) > 0) {
+                    return;
+                }
+                if (count == results.length) {
+                    results = Arrays.copyOf(results, count * 2);
+                    features = Arrays.copyOf(features, count * 2 * Evaluator.FEATURES);
+                }
+                Evaluator.getFeatures(board, features, count * Evaluator.FEATURES);
+                count++;
+            }
+
+            @Override
+            public void gameOver(Board board, int result, int length) {
+                byte label = (byte) (result == GameRecordWriter.BLACK_WINS ? 2 : result == GameRecordWriter.WHITE_WINS ? 0 : 1);
+                Arrays.fill(results, gameStart, count, label);
+                gameStart = count;
+                turns = 0;
+            }
+        });
+    }
+
+    // Sums the squared error, at index FEATURES, and the gradient of each weight over a range of
+    // positions; the gradient leaves out the constant factor 2k.
+    private class ErrorTask extends RecursiveTask<double[]>{
+        private static final long serialVersionUID = 1L;
+
+        double[] weights;
+        double k;
+        int from, to;
+
+        ErrorTask(double[] weights, double k, int from, int to) {
+            this.weights = weights;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from > SPLIT_POSITIONS) {
+                int middle = (from + to) >>> 1;
+                ErrorTask left = new ErrorTask(weights, k, from, middle);
+                left.fork();
+                double[] sums = new ErrorTask(weights, k, middle, to).compute();
+                double[] leftSums = left.join();
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += leftSums[i];
+                }
+                return sums;
+            }
+            int featureCount = Evaluator.FEATURES;
+            double[] sums = new double[featureCount + 1];
+            short[] data = features;
+            for (int position = from; position < to; position++) {
+                int base = position * featureCount;
+                double score = 0;
+                for (int feature = 0; feature < featureCount; feature++) {
+                    score += weights[feature] * data[base + feature];
+                }
+                double predicted = 1 / (1 + Math.exp(-k * score));
+                double difference = predicted - results[position] * 0.5;
+                sums[featureCount] += difference * difference;
+                double slope = difference * predicted * (1 - predicted);
+                for (int feature = 0; feature < featureCount; feature++) {
+                    sums[feature] += slope * data[base + feature];
+                }
+            }
+            return sums;
+        }
+    }
+
+    private double[] sums(double[] weights, double k) {
+        return pool.invoke(new ErrorTask(weights, k, 0, count));
+    }
+
+    /**
+     * Returns the mean squared error of the weights over all positions.
+     */
+    public double error(double[] weights, double k) {
+        return sums(weights, k)[Evaluator.FEATURES] / count;
+    }
+
+    /**
+     * Finds the k for which the weights predict the results best, by golden section search over
+     * its logarithm.
+     */
+    public double fitScale(double[] weights) {
+        double low = Math.log(1e-5), high = Math.log(1), ratio = (Math.sqrt(5) - 1) / 2;
+        double a = high - ratio * (high - low), b = low + ratio * (high - low);
+        double errorA = error(weights, Math.exp(a)), errorB = error(weights, Math.exp(b));
+        for (int i = 0; i < 40; i++) {
+            if (errorA < errorB) {
+                high = b;
+                b = a;
+                errorB = errorA;
+                a = high - ratio * (high - low);
+                errorA = error(weights, Math.exp(a));
+            } else {
+                low = a;
+                a = b;
+                errorA = errorB;
+                b = low + ratio * (high - low);
+                errorB = error(weights, Math.exp(b));
+            }
+        }
+        return Math.exp((low + high) / 2);
+    }
+
+    /**
+     * Moves the weights down the gradient of the error with Adam, learningRate being about the
+     * largest step a weight takes per iteration, and returns the tuned weights.
+     */
+    public double[] tune(double[] start, double k, int iterations, double learningRate, PrintStream log) {
+        double[] weights = start.clone(), mean = new double[weights.length], variance = new double[weights.length];
+        double beta1 = 0.9, beta2 = 0.999;
+        for (int iteration = 1; iteration <= iterations; iteration++) {
+            double[] sums = sums(weights, k);
+            for (int feature = 0; feature < weights.length; feature++) {
+                double gradient = 2 * k * sums[feature] / count;
+                mean[feature] = beta1 * mean[feature] + (1 - beta1) * gradient;
+                variance[feature] = beta2 * variance[feature] + (1 - beta2) * gradient * gradient;
+                double correctedMean = mean[feature] / (1 - Math.pow(beta1, iteration));
+                double correctedVariance = variance[feature] / (1 - Math.pow(beta2, iteration));
+                weights[feature] -= learningRate * correctedMean / (Math.sqrt(correctedVariance) + 1e-12);
+            }
+            if (log != null && (iteration % 100 == 0 || iteration == iterations)) {
+                log.printf("iteration %d: error %.6f  %s%n", iteration, sums[Evaluator.FEATURES] / count,
+                    toEvaluator(weights));
+            }
+        }
+        return weights;
+    }
+
+    public static Evaluator toEvaluator(double[] weights) {
+        int[] rounded = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            rounded[i] = (int) Math.round(weights[i]);
+        }
+        return new Evaluator(rounded);
+    }
+
+    /**
+     * Usage: java Tuner [-threads n] [-iterations n] [-rate r] [-skip n] [-start weights] [-out file]
+     * records... where the records are written by Tournament -record and the tuned weights go to
+     * the out file, to be read with Evaluator.load.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors(), iterations = DEFAULT_ITERATIONS;
+        int skipTurns = DEFAULT_SKIP_TURNS;
+        double learningRate = DEFAULT_LEARNING_RATE;
+        String start = DEFAULT_START, out = DEFAULT_FILE;
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-rate":
+                    learningRate = Double.parseDouble(args[++i]);
+                    break;
+                case "-skip":
+                    skipTurns = Integer.parseInt(args[++i]);
+                    break;
+                case "-start":
+                    start = args[++i];
+                    break;
+                case "-out":
+                    out = args[++i];
+                    break;
+                default:
+                    records.add(args[i]);
+                    break;
+            }
+        }
+
+        Tuner tuner = new Tuner(threads);
+        long loadStart = System.nanoTime();
+        for (String path : records) {
+            tuner.addGames(path, skipTurns);
+        }
+        if (tuner.getPositions() == 0) {
+            throw new IllegalArgumentException("No positions to tune on");
+        }
+        System.out.printf("%d positions loaded in %.1f s%n", tuner.getPositions(), (System.nanoTime() - loadStart) / 1e9);
+
+        Evaluator startEvaluator = Evaluator.parse(start);
+        double[] weights = new double[Evaluator.FEATURES];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = startEvaluator.getWeight(i);
+        }
+        long tuneStart = System.nanoTime();
+        double k = tuner.fitScale(weights);
+        System.out.printf("k = %.6f, error %.6f  %s%n", k, tuner.error(weights, k), startEvaluator);
+        weights = tuner.tune(weights, k, iterations, learningRate, System.out);
+        Evaluator tuned = toEvaluator(weights);
+        System.out.printf("tuned in %.1f s: error %.6f%n", (System.nanoTime() - tuneStart) / 1e9, tuner.error(weights, k));
+        Files.write(Paths.get(out), (tuned + "\n").getBytes());
+        System.out.println(tuned + " -> " + out);
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.*;
+
+public class Zobrist{
+    public static int BLACK_MAN = 0;
+    public static int WHITE_MAN = 1;
+    public static int BLACK_KING = 2;
+    public static int WHITE_KING = 3;
+
+    private static final long[][] PIECE_KEYS = new long[4][64];
+    private static final long[] CHAIN_KEYS = new long[64];
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        Random random = new Random(0x5eed);
+        for (long[] keys : PIECE_KEYS) {
+            for (int square = 0; square < keys.length; square++) {
+                keys[square] = random.nextLong();
+            }
+        }
+        BLACK_TO_MOVE = random.nextLong();
+        for (int square = 0; square < CHAIN_KEYS.length; square++) {
+            CHAIN_KEYS[square] = random.nextLong();
+        }
+    }
+
+    public static long pieceKey(int pieceType, int square) {
+        return PIECE_KEYS[pieceType][square];
+    }
+
+    public static long sideKey(boolean blackToMove) {
+        return blackToMove ? BLACK_TO_MOVE : 0;
+    }
+
+    public static long chainKey(int chainSquare) {
+        return chainSquare < 0 ? 0 : CHAIN_KEYS[chainSquare];
+    }
+
+    public static long hash(long black, long white, long kings) {
+        long hash = 0;
+        hash ^= hash(black & ~kings, BLACK_MAN);
+        hash ^= hash(white & ~kings, WHITE_MAN);
+        hash ^= hash(black & kings, BLACK_KING);
+        hash ^= hash(white & kings, WHITE_KING);
+        return hash;
+    }
+
+    private static long hash(long squares, int pieceType) {
+        long hash = 0;
+        while (squares != 0) {
+            hash ^= PIECE_KEYS[pieceType][Long.numberOfTrailingZeros(squares)];
+            squares &= squares - 1;
+        }
+        return hash;
+    }
+}